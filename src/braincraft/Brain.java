@@ -10,23 +10,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-
-/**
- * @author Chris
- * 
- *         Exception object thrown when the network is passed an invalid number
- *         of inputs.
- */
-class NetworkInputException extends Exception {
-	private static final long serialVersionUID = 1L;
-
-	public NetworkInputException() {
-	}
-
-	public NetworkInputException(String msg) {
-		super(msg);
-	}
-}
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * @author Chris
@@ -50,7 +35,42 @@ public class Brain implements Comparable<Brain>, Serializable {
 	 */
 	protected Double fitness;
 	protected Double adjustedFitness;
+	/**
+	 * Behavior descriptor reported by the user for novelty search, or null
+	 */
+	protected double[] behavior;
+	/**
+	 * Novelty of this Brain's behavior. Starts as null.
+	 */
+	protected Double novelty;
 	private Species species;
+	/**
+	 * Flattened view of the DNA's enabled, output-reachable structure used for
+	 * evaluation. Built on demand and discarded whenever the DNA is mutated.
+	 */
+	private transient Phenotype phenotype;
+	/**
+	 * Network painted on a Substrate by this Brain acting as a CPPN. Kept
+	 * while the Brain is being evaluated so the CPPN is only queried once.
+	 */
+	private transient SubstrateNetwork substrateNetwork;
+	/**
+	 * Budget of the evaluation in progress, or null if it is unlimited
+	 */
+	private transient EvaluationBudget budget;
+	/**
+	 * System.nanoTime() when the budgeted evaluation started
+	 */
+	private transient long budgetStart;
+	/**
+	 * Network activations made so far in the budgeted evaluation
+	 */
+	private transient long budgetActivations;
+	/**
+	 * Outputs remembered for recently seen inputs, when the Species'
+	 * evaluationCacheSize is above 0. Made on first use.
+	 */
+	private transient volatile EvaluationCache cache;
 
 	// CONSTRUCTORS:
 	/**
@@ -102,6 +122,43 @@ public class Brain implements Comparable<Brain>, Serializable {
 	public double getFitness() {
 		return fitness;
 	}
+
+	/**
+	 * Returns how many calls to evaluate were answered from this Brain's
+	 * evaluation cache.
+	 * 
+	 * @return cache hits, or 0 if caching is off
+	 */
+	public long getCacheHits() {
+		EvaluationCache c = cache;
+		return c == null ? 0 : c.getHits();
+	}
+
+	/**
+	 * Returns how many calls to evaluate had to run the network because the
+	 * inputs were not in this Brain's evaluation cache.
+	 * 
+	 * @return cache misses, or 0 if caching is off
+	 */
+	public long getCacheMisses() {
+		EvaluationCache c = cache;
+		return c == null ? 0 : c.getMisses();
+	}
+
+	/**
+	 * Returns the fraction of calls to evaluate answered from this Brain's
+	 * evaluation cache.
+	 * 
+	 * @return hit rate, or 0 if evaluate has not used the cache
+	 */
+	public double getCacheHitRate() {
+		EvaluationCache c = cache;
+		if (c == null)
+			return 0;
+		long hits = c.getHits();
+		long total = hits + c.getMisses();
+		return total == 0 ? 0 : hits / (double) total;
+	}
 	
 	public String printBrain() {
 		// First line
@@ -138,6 +195,16 @@ public class Brain implements Comparable<Brain>, Serializable {
 	}
 
 	
+	/**
+	 * Returns the Species this Brain belongs to.
+	 * 
+	 * @return Species
+	 */
+	protected Species getSpecies() {
+		return species;
+	}
+
+	
 	// PUBLIC AI INTERACTION METHODS:
 	/**
 	 * Ends the life of this Brain upon the termination of evaluation.
@@ -150,13 +217,35 @@ public class Brain implements Comparable<Brain>, Serializable {
 		if (alive) {
 			fitness = fitvalue;
 			alive = false;
+			// Painted substrates can be large; only keep them while needed
+			substrateNetwork = null;
+		}
+	}
+
+	/**
+	 * Records a descriptor of how this Brain behaved during its evaluation.
+	 * When the Species' noveltyWeight is above 0, Brains are selected for how
+	 * far their behavior is from that of other Brains as well as for
+	 * fitness. Call this before reportFitness, which still ends the
+	 * evaluation: for pure novelty search, set noveltyWeight to 1 and report
+	 * a fitness of 0 after the behavior.
+	 * 
+	 * @param descriptor
+	 *            behavior vector; every Brain in a Species must use the same
+	 *            length
+	 */
+	public void reportBehavior(double[] descriptor) {
+		if (alive) {
+			behavior = descriptor.clone();
 		}
 	}
 
 	/**
 	 * Determines the outputs for a Neural Network using the given inputs.
 	 * Throws NetworkInputException if number of inputs not the same as
-	 * originally specified value.
+	 * originally specified value. When the Species' evaluationCacheSize is
+	 * above 0, outputs for recently seen inputs are remembered and returned
+	 * without running the network or spending budget.
 	 * 
 	 * @param inputs
 	 *            double array representing input values for this neural net.
@@ -168,23 +257,198 @@ public class Brain implements Comparable<Brain>, Serializable {
 			throw new NetworkInputException(
 					"Input array did not contain as many elements as previously specified.");
 
-		for (int i = 0; i < inputs.length; i++) {
-			species.inputs[i].activation = inputs[i];
+		EvaluationCache c = getCache();
+		if (c == null)
+			return compute(inputs);
+		double[] ret = c.get(inputs);
+		if (ret == null) {
+			ret = compute(inputs);
+			c.put(inputs, ret);
+		}
+		return ret;
+	}
+
+	/**
+	 * Determines the outputs for an input vector given only by its non-zero
+	 * entries. For very wide, mostly-zero inputs (one-hot or bag-of-features
+	 * encodings) this costs time in proportion to the active inputs rather
+	 * than all inputs. Gives the same outputs as evaluate with every other
+	 * input set to 0. Throws NetworkInputException if the arrays differ in
+	 * length or an index is out of range.
+	 * 
+	 * @param indexes
+	 *            indexes of the non-zero inputs
+	 * @param inputs
+	 *            values of the non-zero inputs, in the same order
+	 * @return double array representing output values for this neural net.
+	 * @throws NetworkInputException
+	 */
+	public double[] evaluateSparse(int[] indexes, double[] inputs)
+			throws NetworkInputException {
+		if (indexes.length != inputs.length)
+			throw new NetworkInputException(
+					"Index and value arrays did not contain as many elements as each other.");
+		for (int i : indexes) {
+			if (i < 0 || i >= species.inputs.length)
+				throw new NetworkInputException("Input index " + i
+						+ " is not one of the previously specified inputs.");
 		}
-		for (NNode n : species.outputs) {
-			n.activation = getActivation(n);
+
+		spendBudget(1);
+		return getPhenotype().evaluateSparse(indexes, inputs);
+	}
+
+	/**
+	 * Determines the outputs for many independent input vectors at once. This
+	 * is much faster than calling evaluate once per row when scoring a Brain
+	 * against a dataset. Throws NetworkInputException if any row does not have
+	 * the originally specified number of inputs.
+	 * 
+	 * @param inputs
+	 *            array of input rows, each representing the input values for
+	 *            one evaluation of this neural net.
+	 * @return array of output rows, one for each input row.
+	 * @throws NetworkInputException
+	 */
+	public double[][] evaluateBatch(double[][] inputs)
+			throws NetworkInputException {
+		for (double[] row : inputs) {
+			if (row.length != species.inputs.length)
+				throw new NetworkInputException(
+						"Input row did not contain as many elements as previously specified.");
 		}
-		double[] retarray = new double[species.outputs.length];
-		for (int i = 0; i < retarray.length; i++) {
-			retarray[i] = species.outputs[i].activation;
+		spendBudget(inputs.length);
+		if (!FlightEvents.sampleEvaluation())
+			return getPhenotype().evaluateBatch(inputs);
+		FlightEvents.Evaluation event = new FlightEvents.Evaluation();
+		event.begin();
+		double[][] ret = getPhenotype().evaluateBatch(inputs);
+		commitEvaluation(event, inputs.length);
+		return ret;
+	}
+
+	/**
+	 * Fine-tunes this Brain's weights by backpropagation on the given rows,
+	 * minimizing the squared error of its outputs. The tuned weights are
+	 * written back into the genes of its DNA, so offspring inherit them
+	 * (Lamarckian evolution). Only enabled connections that feed an output
+	 * are tuned; recurrent connections are left alone. Counts epochs times
+	 * the number of rows against the evaluation budget. Throws
+	 * NetworkInputException if any row does not match the Species' inputs or
+	 * outputs.
+	 *
+	 * @param inputs
+	 *            input rows
+	 * @param targets
+	 *            desired output rows, in [0, 1]
+	 * @param epochs
+	 *            number of passes over the rows
+	 * @param learningRate
+	 *            step size of each update
+	 * @return mean squared error per output over the last epoch
+	 * @throws NetworkInputException
+	 */
+	public double train(double[][] inputs, double[][] targets, int epochs,
+			double learningRate) throws NetworkInputException {
+		if (inputs.length != targets.length)
+			throw new NetworkInputException(
+					"Input and target arrays did not contain as many rows as each other.");
+		for (int r = 0; r < inputs.length; r++) {
+			if (inputs[r].length != species.inputs.length
+					|| targets[r].length != species.outputs.length)
+				throw new NetworkInputException(
+						"Training row did not contain as many elements as previously specified.");
 		}
-		for (NNode n : dna.getNodes()) {
-			if (n.type != NNode.INPUT) {
-				n.activated = false;
-				n.activation = null;
+		spendBudget((long) inputs.length * epochs);
+
+		Phenotype p = getExactPhenotype();
+		double error = backpropagate(p, inputs, targets, epochs, learningRate);
+		// Write the tuned weights back into the genes they came from
+		for (int slot = p.numInputs; slot < p.nodeIDs.length; slot++) {
+			int k = slot - p.numInputs;
+			for (int e = p.firstIncoming[k]; e < p.firstIncoming[k + 1]; e++) {
+				int start = p.nodeIDs[p.sources[e]];
+				for (Gene g : dna.getIncomingGenes(p.nodeIDs[slot])) {
+					if (g.start == start && g.enabled) {
+						g.weight = p.weights[e];
+						break;
+					}
+				}
 			}
 		}
-		return retarray;
+		dnaChanged();
+		species.genomeTuned(this);
+		return error;
+	}
+
+	/**
+	 * Determines the outputs of the network this Brain paints on a Substrate
+	 * when used as a HyperNEAT CPPN. The CPPN is queried for every substrate
+	 * weight on the first call, and the resulting weights are reused until
+	 * this Brain reports its fitness or is mutated. Throws
+	 * NetworkInputException if this Brain's Species does not match the
+	 * Substrate or the number of inputs is not the Substrate's.
+	 * 
+	 * @param substrate
+	 *            the Substrate to evaluate on
+	 * @param inputs
+	 *            one value per node of the Substrate's input layer
+	 * @return one value per node of the Substrate's output layer
+	 * @throws NetworkInputException
+	 */
+	public double[] evaluateSubstrate(Substrate substrate, double[] inputs)
+			throws NetworkInputException {
+		if (species.inputs.length != substrate.getCPPNInputs()
+				|| species.outputs.length != 1)
+			throw new NetworkInputException("A CPPN for this Substrate needs "
+					+ substrate.getCPPNInputs() + " inputs and 1 output.");
+		if (inputs.length != substrate.getNumInputs())
+			throw new NetworkInputException(
+					"Input array did not contain as many elements as the Substrate's input layer.");
+
+		spendBudget(1);
+		if (substrateNetwork == null || substrateNetwork.substrate != substrate)
+			substrateNetwork = new SubstrateNetwork(getPhenotype(), substrate);
+		return substrateNetwork.evaluate(inputs);
+	}
+
+	/**
+	 * Returns true if this Brain has used up the budget of the evaluation in
+	 * progress. Fitness functions that do expensive work of their own can
+	 * poll this to stop early.
+	 * 
+	 * @return whether the evaluation is out of budget
+	 */
+	public boolean isOverBudget() {
+		if (budget == null)
+			return false;
+		return budget.isExceeded(budgetStart, budgetActivations);
+	}
+
+	/**
+	 * Cancels the evaluation in progress if this Brain has used up its
+	 * budget. Evaluate and evaluateBatch already do this on every call; this
+	 * method lets long-running fitness functions do it between calls.
+	 */
+	public void checkBudget() {
+		if (isOverBudget())
+			throw new BudgetExceededException("Brain " + ID
+					+ " ran out of evaluation budget.");
+	}
+
+	/**
+	 * Tells the evaluation harness the highest fitness this Brain can still
+	 * reach. Cancels the evaluation in progress if that is below the budget's
+	 * fitness cutoff.
+	 * 
+	 * @param bound
+	 *            upper bound on the fitness this Brain can still reach
+	 */
+	public void reportFitnessBound(double bound) {
+		if (budget != null && bound < budget.fitnessCutoff)
+			throw new BudgetExceededException("Brain " + ID
+					+ " can no longer reach fitness " + budget.fitnessCutoff
+					+ ".");
 	}
 
 	
@@ -202,7 +466,7 @@ public class Brain implements Comparable<Brain>, Serializable {
 			out.writeObject(this);
 			out.close();
 		} catch (IOException e) {
-			Braincraft.report("Couldn't save object to file.");
+			species.reportError("Couldn't save object to file.");
 		}
 	}
 
@@ -211,7 +475,7 @@ public class Brain implements Comparable<Brain>, Serializable {
 	 * 
 	 * @param file
 	 *            location of serializable file
-	 * @return loaded Brain object
+	 * @return loaded Brain object, or null if it could not be loaded
 	 */
 	public static Brain loadObject(String file) {
 		try {
@@ -225,7 +489,6 @@ public class Brain implements Comparable<Brain>, Serializable {
 			return loaded;
 		} catch (ClassNotFoundException e) {
 		} catch (IOException e) {
-			Braincraft.report("Could not load specified Brain file.");
 		}
 		return null;
 	}
@@ -242,7 +505,64 @@ public class Brain implements Comparable<Brain>, Serializable {
 			out.write(printBrain());
 			out.close();
 		} catch (IOException e) {
-			Braincraft.reportError("Could not write Brain " + ID + " to location " + file + ".");
+			species.reportError("Could not write Brain " + ID + " to location " + file + ".");
+		}
+	}
+
+	/**
+	 * Returns an immutable copy of this Brain's network for production use.
+	 * The copy keeps only flat primitive topology and weights, has its own
+	 * compact serialized form, and can be evaluated by many threads at once.
+	 * Later mutations of this Brain do not affect it.
+	 * 
+	 * @return a FrozenBrain computing the same outputs as this Brain, in
+	 *         double precision even if the Species evaluates in single
+	 *         precision
+	 */
+	public FrozenBrain freeze() {
+		return new FrozenBrain(getExactPhenotype());
+	}
+
+	/**
+	 * Returns this Brain as the source of a standalone Java class. The class
+	 * has a single method, static void evaluate(double[] in, double[] out),
+	 * which computes the same outputs as this Brain with the topology
+	 * unrolled and the weights inlined. It depends on nothing but the JDK.
+	 * 
+	 * @param className
+	 *            name of the generated class, optionally qualified with a
+	 *            package
+	 * @return Java source code, or null if the class name is not valid
+	 */
+	public String exportJava(String className) {
+		if (!JavaSourceWriter.isValidClassName(className)) {
+			species.reportError(className + " is not a valid Java class name.");
+			return null;
+		}
+		return new JavaSourceWriter(getExactPhenotype()).write(className,
+				"Brain " + ID + " of Species " + species.getID()
+						+ ", exported by Braincraft.");
+	}
+
+	/**
+	 * Allows the user to save this brain as a standalone Java source file
+	 * 
+	 * @param file
+	 *            output file for the source
+	 * @param className
+	 *            name of the generated class, optionally qualified with a
+	 *            package
+	 */
+	public void saveJava(String file, String className) {
+		String source = exportJava(className);
+		if (source == null)
+			return;
+		try {
+			BufferedWriter out = new BufferedWriter(new FileWriter(file));
+			out.write(source);
+			out.close();
+		} catch (IOException e) {
+			species.reportError("Could not write Brain " + ID + " to location " + file + ".");
 		}
 	}
 
@@ -258,13 +578,38 @@ public class Brain implements Comparable<Brain>, Serializable {
 	}
 
 	
+	/**
+	 * Returns the score this Brain is selected on: its fitness, mixed with
+	 * its novelty when novelty search is enabled
+	 * 
+	 * @return selection score
+	 */
+	protected double getSelectionFitness() {
+		if (species.params.noveltyWeight <= 0)
+			return fitness;
+		double n = novelty == null ? 0.0 : novelty;
+		return (1 - species.params.noveltyWeight) * fitness
+				+ species.params.noveltyWeight * n;
+	}
+
+	
 	// MUTATION METHODS:
 	/**
 	 * Mutate this DNA to add a node
 	 */
 	protected void mutateAddNode() {
-		// Select the gene to be split
-		int mutategene = dna.getRandomGeneInnovation();
+		FlightEvents.Mutation event = FlightEvents.startMutation(species, ID,
+				"addNode");
+		addNode();
+		FlightEvents.endMutation(event, dna);
+	}
+
+	private void addNode() {
+		// Select the gene to be split. Splitting a disabled gene would only
+		// add structure that is never expressed.
+		if (dna.numEnabledGenes() == 0)
+			return;
+		int mutategene = dna.getRandomEnabledGeneInnovation(species.getRandom());
 
 		// Create the new genes
 		Gene mutated = dna.getGene(mutategene);
@@ -281,32 +626,40 @@ public class Brain implements Comparable<Brain>, Serializable {
 		// Submit new genes
 		dna.submitNewConnection(early);
 		dna.submitNewConnection(late);
+		dnaChanged();
 	}
 
 	/**
 	 * Mutate this DNA to add a link
 	 */
 	protected void mutateAddLink() {
+		FlightEvents.Mutation event = FlightEvents.startMutation(species, ID,
+				"addLink");
+		addLink();
+		FlightEvents.endMutation(event, dna);
+	}
+
+	private void addLink() {
 		// Make sure network is not fully connected
 
 		// Sum number of connections
 		int totalconnections = dna.numGenes();
 
-		// Find number of each type of node
-		int numIn = species.inputs.length;
-		int numOut = species.outputs.length;
-		int numHid = dna.numNodes() - (numIn + numOut);
+		// Find the number of nodes that can end a connection
+		int numNodes = dna.numNodes();
+		int numEnds = 0;
+		for (NNode n : dna.getNodes()) {
+			if (n.type != NNode.INPUT)
+				numEnds++;
+		}
 
 		// Find the number of possible connections.
-		// Each input node can go to each output and each hidden. (I * (O + H))
-		// Each hidden node can go to each output and each hidden. (H * (O + H))
-		// Each output node can go to each output and each hidden. (O * (O + H))
-		// Rearrange with algebra (I * (O + H)) + (H * (O + H)) + (O * (O + H))
-		// == (I + H + O) * (O + H)
-		int fullyconnected = 0;
-		fullyconnected = (numIn + numHid + numOut) * (numOut + numHid);
-
-		if (totalconnections == fullyconnected)
+		// Every node can go to each output and each hidden (N * (O + H)),
+		// except to itself, which removes one connection per output and
+		// hidden node: (N - 1) * (O + H)
+		int fullyconnected = (numNodes - 1) * numEnds;
+
+		if (totalconnections >= fullyconnected)
 			return;
 
 		// Pick 2 nodes for a new connection and submit it
@@ -314,26 +667,27 @@ public class Brain implements Comparable<Brain>, Serializable {
 		NNode randomstart;
 		NNode randomend;
 		do {
-			randomstart = species.getNode(dna.getRandomNodeID());
-			randomend = species.getNode(dna.getRandomNodeID());
+			randomstart = species.getNode(dna.getRandomNodeID(species.getRandom()));
+			randomend = species.getNode(dna.getRandomNodeID(species.getRandom()));
 		} while (randomend.type == NNode.INPUT || randomstart.equals(randomend)
 				|| dna.hasConnection(randomstart.ID, randomend.ID));
 
 		Gene newgene = new Gene(randomstart.ID, randomend.ID, Braincraft
-				.randomWeight(), species);
+				.randomWeight(species.getRandom()), species);
 		dna.submitNewConnection(newgene);
+		dnaChanged();
 	}
 
 	/**
 	 * Mutate the weights of this DNA
 	 */
 	protected void mutateWeights() {
-		for (int i = 0; i <= dna.getHighestInnovation(); i++) {
-			if (dna.has(i)
-					&& Braincraft.randomChance(Braincraft.perWeightMutationRate)) {
-				dna.getGene(i).weight = Braincraft.randomWeight();
-			}
-		}
+		FlightEvents.Mutation event = FlightEvents.startMutation(species, ID,
+				"weights");
+		dna.mutateWeights(species.getRandom(),
+				species.params.perWeightMutationRate);
+		dnaChanged();
+		FlightEvents.endMutation(event, dna);
 	}
 
 	
@@ -349,6 +703,39 @@ public class Brain implements Comparable<Brain>, Serializable {
 	 *         brains
 	 */
 	protected static Brain crossBrains(Brain b1, Brain b2) {
+		DNA ret = crossDNA(b1, b2);
+		if (ret == null)
+			return null;
+		return new Brain(b1.species, ret);
+	}
+
+	/**
+	 * Crosses the DNA of two parent Brains without creating the offspring
+	 * Brain. Only reads shared Species state, so it may run on several
+	 * threads at once.
+	 * 
+	 * @param b1
+	 *            mother Brain
+	 * @param b2
+	 *            father Brain
+	 * @return the offspring's DNA, or null if the parents cannot breed
+	 */
+	protected static DNA crossDNA(Brain b1, Brain b2) {
+		FlightEvents.Crossover event = new FlightEvents.Crossover();
+		event.begin();
+		DNA ret = crossGenomes(b1, b2);
+		if (ret != null && event.shouldCommit()) {
+			event.speciesID = b1.species.getID();
+			event.generation = b1.species.numGenerations;
+			event.motherID = b1.ID;
+			event.fatherID = b2.ID;
+			event.genomeSize = ret.numGenes();
+			event.commit();
+		}
+		return ret;
+	}
+
+	private static DNA crossGenomes(Brain b1, Brain b2) {
 		DNA hifit;
 		DNA lofit;
 
@@ -358,9 +745,11 @@ public class Brain implements Comparable<Brain>, Serializable {
 			return null;
 
 		DNA ret = new DNA();
+		Parameters params = b1.species.params;
+		Random r = b1.species.getRandom();
 
 		// Choose the genome with the higher fitness
-		if (b1.fitness > b2.fitness) {
+		if (b1.getSelectionFitness() > b2.getSelectionFitness()) {
 			hifit = b1.dna;
 			lofit = b2.dna;
 		} else {
@@ -371,16 +760,16 @@ public class Brain implements Comparable<Brain>, Serializable {
 		// Populate gene list of ret
 		for (Integer i : hifit.getInnovations()) {
 			if (!lofit.has(i)) {
-				ret.submitNewConnection(hifit.getGene(i));
+				ret.submitNewConnection(new Gene(hifit.getGene(i)));
 			} else {
 				Gene newgene;
-				if (Braincraft.randomChance(Braincraft.inheritFromHigherFitRate))
+				if (Braincraft.randomChance(r, params.inheritFromHigherFitRate))
 					newgene = new Gene(hifit.getGene(i));
 				else
 					newgene = new Gene(lofit.getGene(i));
 				if (!hifit.getGene(i).enabled
 						|| !lofit.getGene(i).enabled) {
-					if (Braincraft.randomChance(Braincraft.disabledRate))
+					if (Braincraft.randomChance(r, params.disabledRate))
 						newgene.enabled = false;
 					else
 						newgene.enabled = true;
@@ -399,7 +788,7 @@ public class Brain implements Comparable<Brain>, Serializable {
 				ret.submitNewNode(b1.species.getNode(g.end));
 			}
 		}
-		return new Brain(b1.species, ret);
+		return ret;
 	}
 
 	/**
@@ -421,96 +810,289 @@ public class Brain implements Comparable<Brain>, Serializable {
 		int disjoint = 0;
 		double weightdif = 0;
 		int matching = 0;
-		DNA larger;
-		int lowest = Math.min(highest1, highest2);
-		int highest = Math.max(highest1, highest2);
-
-		// Calculate which genome has a higher innovation
-		if (highest == highest1)
-			larger = d1;
-		else
-			larger = d2;
-
-		// Calculate excess
-		for (int i = lowest + 1; i <= highest; i++) {
-			if (larger.has(i)) {
-				excess++;
-			}
-		}
 
-		// Calculate disjoint
-		for (int i = 0; i <= lowest; i++) {
-			boolean d1has = d1.has(i);
-			boolean d2has = d2.has(i);
-			if ((d1has || d2has) && !(d1has && d2has)) {
-				disjoint++;
-			}
-			if (d1has && d2has) {
+		// Walk the genes each genome actually has rather than the whole
+		// innovation range, which only ever grows. A gene missing from the
+		// other genome is excess if it lies beyond that genome's highest
+		// innovation and disjoint otherwise.
+		for (Integer i : d1.getInnovations()) {
+			if (d2.has(i)) {
 				weightdif += Math.abs(d1.getGene(i).weight
 						- d2.getGene(i).weight);
 				matching++;
+			} else if (i > highest2) {
+				excess++;
+			} else {
+				disjoint++;
+			}
+		}
+		for (Integer i : d2.getInnovations()) {
+			if (d1.has(i))
+				continue;
+			if (i > highest1) {
+				excess++;
+			} else {
+				disjoint++;
 			}
 		}
 		double[] ret = new double[3];
 		ret[0] = disjoint;
 		ret[1] = excess;
-		ret[2] = weightdif / matching;
+		ret[2] = matching > 0 ? weightdif / matching : 0.0;
 		return ret;
 	}
 
 	/**
-	 * Returns true if two Brains pass the compatibility threshold test
+	 * Returns the NEAT compatibility distance between two Brains: excess and
+	 * disjoint genes per gene of the larger genome, plus the average weight
+	 * difference of matching genes.
 	 * 
 	 * @param b1
-	 *            test Brain one
+	 *            one Brain to compare
 	 * @param b2
-	 *            test Brain two
-	 * @return true if the Brains are compatible
+	 *            other Brain to compare
+	 * @return compatibility distance, 0 for identical genomes
 	 */
-	protected static boolean areCompatible(Brain b1, Brain b2) {
+	protected static double compatibilityDistance(Brain b1, Brain b2) {
 		double[] disex = getDisjointExcessWeightCount(b1, b2);
-		int n = Math.max(b1.dna.numGenes(), b2.dna.numGenes());
+		int n = compatibilityNormalizer(b1.dna.numGenes(), b2.dna.numGenes());
+		Parameters p = b1.species.params;
+		return ((p.c1 * disex[1]) / n) + ((p.c2 * disex[0]) / n) + p.c3
+				* disex[2];
+	}
+
+	/**
+	 * Returns the number that excess and disjoint gene counts are divided by
+	 * in the compatibility distance. Small genomes are not normalized.
+	 * 
+	 * @param numGenes1
+	 *            number of genes in one genome
+	 * @param numGenes2
+	 *            number of genes in the other genome
+	 * @return normalizing gene count
+	 */
+	protected static int compatibilityNormalizer(int numGenes1, int numGenes2) {
+		int n = Math.max(numGenes1, numGenes2);
 		if (n < 20) {
 			n = 1;
 		}
-		double comindex = ((Braincraft.c1 * disex[1]) / n)
-				+ ((Braincraft.c2 * disex[0]) / n) + Braincraft.c3 * disex[2];
-		System.out.println(comindex);
-		if (comindex >= Braincraft.compThresh) {
-			return true;
-		}
-		return false;
+		return n;
+	}
+
+	/**
+	 * Returns true if two Brains pass the compatibility threshold test, that
+	 * is if their compatibility distance is below the Species' current
+	 * threshold
+	 * 
+	 * @param b1
+	 *            test Brain one
+	 * @param b2
+	 *            test Brain two
+	 * @return true if the Brains are compatible
+	 */
+	protected static boolean areCompatible(Brain b1, Brain b2) {
+		return compatibilityDistance(b1, b2) < b1.species.compThresh;
 	}
 
-	
 	// EVALUATION HELPER METHODS:
-	private double getActivation(NNode node) {
-		if (node.activated)
-			return node.activation;
-		for (Gene g : dna.getIncomingGenes(node.ID)) {
-			NNode start = species.getNode(g.start);
-			if (start.activation == null) {
-				start.activation = getActivation(start);
-			}
+	/**
+	 * Runs the network on one input vector, counting it against the budget
+	 */
+	private double[] compute(double[] inputs) {
+		spendBudget(1);
+		if (!FlightEvents.sampleEvaluation())
+			return getPhenotype().evaluate(inputs);
+		FlightEvents.Evaluation event = new FlightEvents.Evaluation();
+		event.begin();
+		double[] ret = getPhenotype().evaluate(inputs);
+		commitEvaluation(event, 1);
+		return ret;
+	}
+
+	/**
+	 * Returns this Brain's evaluation cache, making it if needed
+	 * 
+	 * @return the cache, or null if caching is off
+	 */
+	private EvaluationCache getCache() {
+		EvaluationCache c = cache;
+		if (c != null || species.params.evaluationCacheSize <= 0)
+			return c;
+		synchronized (this) {
+			if (cache == null)
+				cache = new EvaluationCache(species.params.evaluationCacheSize);
+			return cache;
 		}
-		node.activated = true;
-		return calculateActivation(node);
 	}
 
-	private double calculateActivation(NNode node) {
-		Double sum = 0.0;
-		for (Gene g : dna.getIncomingGenes(node.ID)) {
-			sum += g.weight * species.getNode(g.start).activation;
+	/**
+	 * Fills in and commits a sampled evaluation event, if it is recorded
+	 */
+	private void commitEvaluation(FlightEvents.Evaluation event, int rows) {
+		if (!event.shouldCommit())
+			return;
+		event.speciesID = species.getID();
+		event.generation = species.numGenerations;
+		event.brainID = ID;
+		event.genomeSize = dna.numGenes();
+		event.rows = rows;
+		event.commit();
+	}
+
+	/**
+	 * Starts tracking an evaluation against the given budget
+	 * 
+	 * @param b
+	 *            budget for the evaluation, or null for no limits
+	 */
+	protected void startBudget(EvaluationBudget b) {
+		budget = b;
+		budgetStart = System.nanoTime();
+		budgetActivations = 0;
+	}
+
+	/**
+	 * Counts network activations against the budget of the evaluation in
+	 * progress, cancelling it if the budget is used up
+	 * 
+	 * @param activations
+	 *            number of activations about to be made
+	 */
+	private void spendBudget(long activations) {
+		if (budget == null)
+			return;
+		budgetActivations += activations;
+		checkBudget();
+	}
+
+	/**
+	 * Discards everything derived from the DNA. Must be called whenever the
+	 * DNA is changed.
+	 */
+	private void dnaChanged() {
+		phenotype = null;
+		substrateNetwork = null;
+		EvaluationCache c = cache;
+		if (c != null)
+			c.clear();
+	}
+
+	/**
+	 * Returns the flattened view of this Brain's DNA, building it if the DNA
+	 * has changed since it was last used.
+	 * 
+	 * @return Phenotype for the current DNA
+	 */
+	private Phenotype getPhenotype() {
+		if (phenotype == null) {
+			if (species.params.singlePrecision)
+				phenotype = new FloatPhenotype(dna, species);
+			else
+				phenotype = new Phenotype(dna, species);
 		}
-		return sigmoidFunction(sum);
+		return phenotype;
+	}
+
+	/**
+	 * Returns a double precision Phenotype for the current DNA, even when
+	 * evaluation is in single precision
+	 * 
+	 * @return Phenotype with double precision weights
+	 */
+	private Phenotype getExactPhenotype() {
+		Phenotype p = getPhenotype();
+		if (p instanceof FloatPhenotype)
+			return new Phenotype(dna, species);
+		return p;
 	}
 
-	private double sigmoidFunction(Double sum) {
-		return 1 / (1 + Math.pow(Math.E, sum * Braincraft.sigmoidCoefficient));
+	/**
+	 * Tunes the weights of a double precision Phenotype by backpropagation,
+	 * minimizing the squared error between outputs and targets. Weights are
+	 * updated after every row (stochastic gradient descent). Only the weights
+	 * array is updated; the copy indexed by input that evaluateSparse uses
+	 * goes stale, so the Phenotype must be rebuilt from the tuned genes.
+	 * 
+	 * @param p
+	 *            Phenotype to tune, never a FloatPhenotype
+	 * @param inputs
+	 *            input rows, each with one value per Species input
+	 * @param targets
+	 *            target rows, each with one value per Species output
+	 * @param epochs
+	 *            number of passes over the rows
+	 * @param rate
+	 *            learning rate
+	 * @return mean squared error per output over the last epoch, measured
+	 *         before each row's update
+	 */
+	private static double backpropagate(Phenotype p, double[][] inputs,
+			double[][] targets, int epochs, double rate) {
+		double coefficient = p.sigmoidCoefficient;
+		double[] values = new double[p.nodeIDs.length];
+		double[] deltas = new double[p.nodeIDs.length];
+		double error = 0.0;
+		for (int epoch = 0; epoch < epochs; epoch++) {
+			error = 0.0;
+			for (int r = 0; r < inputs.length; r++) {
+				// Forward pass, keeping every activation
+				System.arraycopy(inputs[r], 0, values, 0, p.numInputs);
+				for (int slot = p.numInputs; slot < values.length; slot++) {
+					int k = slot - p.numInputs;
+					double sum = 0.0;
+					for (int e = p.firstIncoming[k]; e < p.firstIncoming[k + 1]; e++) {
+						sum += p.weights[e] * values[p.sources[e]];
+					}
+					values[slot] = Phenotype.sigmoid(sum, coefficient);
+				}
+
+				Arrays.fill(deltas, 0.0);
+				for (int i = 0; i < p.numOutputs; i++) {
+					double d = values[p.outputSlots[i]] - targets[r][i];
+					deltas[p.outputSlots[i]] = d;
+					error += d * d;
+				}
+
+				// Backward pass in reverse topological order, so each
+				// slot's delta is complete before it is passed on
+				for (int slot = values.length - 1; slot >= p.numInputs; slot--) {
+					double y = values[slot];
+					// d sigmoid(c * x) / dx = -c * y * (1 - y)
+					double d = deltas[slot] * -coefficient * y * (1 - y);
+					if (d == 0.0)
+						continue;
+					int k = slot - p.numInputs;
+					for (int e = p.firstIncoming[k]; e < p.firstIncoming[k + 1]; e++) {
+						int source = p.sources[e];
+						if (source >= p.numInputs)
+							deltas[source] += d * p.weights[e];
+						p.weights[e] -= rate * d * values[source];
+					}
+				}
+			}
+		}
+		return inputs.length == 0 ? 0.0 : error
+				/ (inputs.length * (double) p.numOutputs);
 	}
 
 	
 	// OTHER METHODS:
+	/**
+	 * Ages the disabled genes of this Brain's DNA by one generation and
+	 * removes the ones that have been disabled for the given number of
+	 * generations.
+	 * 
+	 * @param lifetime
+	 *            generations a gene may stay disabled before it is removed
+	 * @return number of genes removed
+	 */
+	protected int collectDisabledGenes(int lifetime) {
+		int removed = dna.collectDisabledGenes(lifetime);
+		if (removed > 0)
+			dnaChanged();
+		return removed;
+	}
+
 	/**
 	 * Sets up a fully connected DNA with only inputs, outputs and random
 	 * weights.
@@ -523,6 +1105,7 @@ public class Brain implements Comparable<Brain>, Serializable {
 
 		int numInputs = species.inputs.length;
 		int numOutputs = species.outputs.length;
+		Random r = species.getRandom();
 		for (NNode node : species.inputs) {
 			dna.submitNewNode(node);
 		}
@@ -532,13 +1115,13 @@ public class Brain implements Comparable<Brain>, Serializable {
 		if (numInputs > numOutputs) {
 			for (int i = 0; i < numInputs; i++) {
 				Gene g = new Gene(species.inputs[i].ID, species.outputs[i
-						% numOutputs].ID, Braincraft.randomWeight(), species);
+						% numOutputs].ID, Braincraft.randomWeight(r), species);
 				dna.submitNewConnection(g);
 			}
 		} else {
 			for (int i = 0; i < numOutputs; i++) {
 				Gene g = new Gene(species.inputs[i % numInputs].ID,
-						species.outputs[i].ID, Braincraft.randomWeight(), species);
+						species.outputs[i].ID, Braincraft.randomWeight(r), species);
 				dna.submitNewConnection(g);
 			}
 		}
@@ -554,12 +1137,8 @@ public class Brain implements Comparable<Brain>, Serializable {
 	public int compareTo(Brain b) {
 		if (adjustedFitness == null || b.adjustedFitness == null)
 			return 0;
-		if (b.adjustedFitness < adjustedFitness)
-			return -1;
-		else if (b.adjustedFitness == adjustedFitness)
-			return 0;
-		else
-			return 1;
+		// Higher adjusted fitness sorts first
+		return Double.compare(b.adjustedFitness, adjustedFitness);
 	}
 	
 	/**
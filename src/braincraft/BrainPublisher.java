@@ -0,0 +1,305 @@
+package braincraft;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Flow;
+
+/**
+ * Hands out the Brains of a Species as a reactive stream, so that an
+ * asynchronous evaluation pipeline can pull exactly as many Brains as it has
+ * room for. Fitness comes back through reportFitness or the subscriber from
+ * getResultSubscriber, in any order. Once every Brain handed out has its
+ * fitness and no unevaluated Brains are left, the Species breeds a new
+ * generation and publishing resumes on its own.
+ *
+ * Several subscribers share the Brains between them; each Brain goes to one
+ * of them. Brains are delivered on whichever thread called request or
+ * reported the last result of a generation. The stream never ends unless
+ * close is called.
+ *
+ * Get the publisher of a Species with Species.getPublisher. Do not mix it
+ * with Species.getBrain: Brains taken that way are not waited for.
+ */
+public class BrainPublisher implements Flow.Publisher<Brain> {
+	// FIELDS:
+	private final Species species;
+	/**
+	 * Guards the Species, the subscriptions and outstanding
+	 */
+	private final Object lock = new Object();
+	private ArrayList<BrainSubscription> subscriptions;
+	/**
+	 * Brains handed out and not yet given a fitness, by ID
+	 */
+	private HashMap<Integer, Brain> outstanding;
+	private boolean closed;
+
+	// CONSTRUCTORS:
+	protected BrainPublisher(Species spec) {
+		species = spec;
+		subscriptions = new ArrayList<BrainSubscription>();
+		outstanding = new HashMap<Integer, Brain>();
+	}
+
+	// PUBLIC METHODS:
+	public void subscribe(Flow.Subscriber<? super Brain> subscriber) {
+		if (subscriber == null)
+			throw new NullPointerException();
+		BrainSubscription s = new BrainSubscription(subscriber);
+		boolean wasClosed;
+		synchronized (lock) {
+			wasClosed = closed;
+			if (!wasClosed)
+				subscriptions.add(s);
+		}
+		subscriber.onSubscribe(s);
+		if (wasClosed)
+			subscriber.onComplete();
+	}
+
+	/**
+	 * Reports the fitness of a Brain handed out by this publisher. Results
+	 * may arrive in any order and from any thread.
+	 *
+	 * @param brainID
+	 *            ID of the evaluated Brain
+	 * @param fitness
+	 *            its fitness
+	 * @return 1 if successful, -1 if the Brain is not waiting for a fitness
+	 */
+	public int reportFitness(int brainID, double fitness) {
+		return reportResult(new Result(brainID, fitness));
+	}
+
+	/**
+	 * Reports the fitness and behavior of a Brain handed out by this
+	 * publisher.
+	 *
+	 * @param result
+	 *            the evaluation result
+	 * @return 1 if successful, -1 if the Brain is not waiting for a fitness
+	 */
+	public int reportResult(Result result) {
+		boolean rollover;
+		synchronized (lock) {
+			Brain b = outstanding.remove(result.brainID);
+			if (b == null) {
+				species.reportError("Brain " + result.brainID
+						+ " is not waiting for a fitness.");
+				return -1;
+			}
+			if (result.behavior != null)
+				b.reportBehavior(result.behavior);
+			b.reportFitness(result.fitness);
+			rollover = outstanding.isEmpty();
+		}
+		if (rollover)
+			drainAll();
+		return 1;
+	}
+
+	/**
+	 * Returns a subscriber that passes each Result it receives to
+	 * reportResult. It requests results without limit.
+	 *
+	 * @return the result sink
+	 */
+	public Flow.Subscriber<Result> getResultSubscriber() {
+		return new Flow.Subscriber<Result>() {
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			public void onNext(Result item) {
+				reportResult(item);
+			}
+
+			public void onError(Throwable throwable) {
+				species.reportError("Result stream failed: " + throwable);
+			}
+
+			public void onComplete() {
+			}
+		};
+	}
+
+	/**
+	 * Get the number of Brains handed out and still waiting for a fitness
+	 *
+	 * @return number of outstanding Brains
+	 */
+	public int getNumOutstanding() {
+		synchronized (lock) {
+			return outstanding.size();
+		}
+	}
+
+	/**
+	 * Ends the stream. Every subscriber is completed and later subscribers
+	 * are completed at once. Results for outstanding Brains are still
+	 * accepted.
+	 */
+	public void close() {
+		ArrayList<BrainSubscription> ended;
+		synchronized (lock) {
+			closed = true;
+			ended = new ArrayList<BrainSubscription>(subscriptions);
+			subscriptions.clear();
+		}
+		for (BrainSubscription s : ended) {
+			s.complete();
+		}
+	}
+
+	/**
+	 * An evaluation result: a Brain's ID, its fitness, and optionally the
+	 * behavior descriptor used by novelty search
+	 */
+	public static class Result {
+		public final int brainID;
+		public final double fitness;
+		public final double[] behavior;
+
+		public Result(int brainID, double fitness) {
+			this(brainID, fitness, null);
+		}
+
+		public Result(int brainID, double fitness, double[] behavior) {
+			this.brainID = brainID;
+			this.fitness = fitness;
+			this.behavior = behavior;
+		}
+	}
+
+	// HELPER METHODS:
+	/**
+	 * Takes the next Brain to hand out, breeding a new generation once the
+	 * last one is fully evaluated. Must be called holding lock.
+	 *
+	 * @return Brain, or null if the generation is waiting for results
+	 */
+	private Brain next() {
+		Brain b = species.pollBrain(outstanding.isEmpty());
+		if (b != null)
+			outstanding.put(b.getID(), b);
+		return b;
+	}
+
+	private void drainAll() {
+		ArrayList<BrainSubscription> all;
+		synchronized (lock) {
+			all = new ArrayList<BrainSubscription>(subscriptions);
+		}
+		for (BrainSubscription s : all) {
+			s.drain();
+		}
+	}
+
+	/**
+	 * The link between this publisher and one subscriber
+	 */
+	private class BrainSubscription implements Flow.Subscription {
+		private final Flow.Subscriber<? super Brain> subscriber;
+		/**
+		 * Brains requested and not yet delivered. Guarded by lock.
+		 */
+		private long demand;
+		/**
+		 * True while a thread is delivering to this subscriber. Guarded by
+		 * lock.
+		 */
+		private boolean draining;
+		private boolean cancelled;
+		/**
+		 * True if the stream was closed while a thread was delivering, so
+		 * that thread completes the subscriber when it is done. Guarded by
+		 * lock.
+		 */
+		private boolean completeAfterDrain;
+
+		private BrainSubscription(Flow.Subscriber<? super Brain> s) {
+			subscriber = s;
+		}
+
+		public void request(long n) {
+			if (n <= 0) {
+				cancel();
+				subscriber.onError(new IllegalArgumentException(
+						"Requested " + n + " Brains."));
+				return;
+			}
+			synchronized (lock) {
+				demand += n;
+				// Saturate at "unbounded"
+				if (demand < 0)
+					demand = Long.MAX_VALUE;
+			}
+			drain();
+		}
+
+		public void cancel() {
+			synchronized (lock) {
+				cancelled = true;
+				subscriptions.remove(this);
+			}
+		}
+
+		/**
+		 * Delivers Brains while there is demand and there are Brains to
+		 * deliver. Only one thread delivers at a time, so a subscriber
+		 * calling request from onNext does not recurse.
+		 */
+		private void drain() {
+			synchronized (lock) {
+				if (draining)
+					return;
+				draining = true;
+			}
+			while (true) {
+				Brain b;
+				boolean completing = false;
+				synchronized (lock) {
+					b = cancelled || closed || demand == 0 ? null : next();
+					if (b == null) {
+						draining = false;
+						completing = completeAfterDrain;
+						completeAfterDrain = false;
+					} else {
+						demand--;
+					}
+				}
+				if (b == null) {
+					if (completing)
+						subscriber.onComplete();
+					return;
+				}
+				try {
+					subscriber.onNext(b);
+				} catch (RuntimeException e) {
+					species.reportError("Subscriber failed on Brain "
+							+ b.getID() + ": " + e);
+					cancel();
+					synchronized (lock) {
+						draining = false;
+					}
+					return;
+				}
+			}
+		}
+
+		private void complete() {
+			synchronized (lock) {
+				if (cancelled)
+					return;
+				cancelled = true;
+				// The delivering thread may hold a Brain it has taken; it
+				// completes the subscriber after handing that over
+				if (draining) {
+					completeAfterDrain = true;
+					return;
+				}
+			}
+			subscriber.onComplete();
+		}
+	}
+}
@@ -12,86 +12,60 @@ import java.util.Random;
  *         thinklib is a loose interpretation/implementation of Ken Stanley's
  *         NEAT. More information on NEAT can be found here:
  *         http://www.cs.ucf.edu/~kstanley/neat.html
+ * 
+ *         Each Braincraft object is a separate library with its own
+ *         parameters, random number generator, Species and logs, so any
+ *         number of them can run side by side in one JVM.
  */
 public class Braincraft {
-	// NEAT PARAMETERS:
-	/**
-	 * Coefficient of x in sigmoid(x)
-	 */
-	public static double sigmoidCoefficient;
-	/**
-	 * Parameter of the function that determines a Brain's population
-	 */
-	public static double c1;
-	/**
-	 * Parameter of the function that determines a Brain's population
-	 */
-	public static double c2;
-	/**
-	 * Parameter of the function that determines a Brain's population
-	 */
-	public static double c3;
-	/**
-	 * Threshold value for determining a Brain's place in a population
-	 */
-	public static double compThresh;
-	/**
-	 * The default population size if not specified
-	 */
-	private static int defaultPopulationSize;
-	/**
-	 * Percentage of each tribe that does not get to reproduce at each
-	 * generation
-	 */
-	public static double percentageOfTribeToKillBeforeReproduction;
-	/**
-	 * Chance that an individual weight will be mutated in a network weight
-	 * mutation.
-	 */
-	public static double perWeightMutationRate;
-	/**
-	 * Chance of a neural network having its weights mutated.
-	 */
-	public static double weightMutationRate;
-	/**
-	 * Chance of a neural network having a connection mutation
-	 */
-	public static double linkMutationRate;
+	// FIELDS:
 	/**
-	 * Chance of a neural network having a node added
+	 * Parameters given to Species created by this library
 	 */
-	public static double nodeMutationRate;
+	private final Parameters params;
+	private final Random rng;
 	/**
-	 * Chance that a gene will be disabled in the offspring given that one of
-	 * its parents has that gene disabled.
+	 * Random number generator overriding a Species' own on the current
+	 * thread, if any. Shared by all libraries, as each thread only works for
+	 * one Species at a time.
 	 */
-	public static double disabledRate;
+	private static final ThreadLocal<Random> threadRng = new ThreadLocal<Random>();
+	private final ArrayList<Species> ecosystem;
+	private final ArrayList<String> log;
+	private final ArrayList<String> errorLog;
+
+	// CONSTRUCTORS:
 	/**
-	 * Chance that offspring will inherit a given gene from the parent with
-	 * higher fitness.
+	 * Constuctor for a new thinklib environment with the default parameters.
 	 */
-	public static double inheritFromHigherFitRate;
-
-	// FIELDS:
-	private static Random rng;
-	private static ArrayList<Species> ecosystem;
-	private static ArrayList<String> log;
-	private static ArrayList<String> errorLog;
+	public Braincraft() {
+		this(new Parameters.Builder().build());
+	}
 
-	// CONSTRUCTORS:
 	/**
 	 * Constuctor for a new thinklib environment.
+	 * 
+	 * @param parameters
+	 *            parameters for the Species of this library
 	 */
-	public Braincraft() {
-		setParams();
+	public Braincraft(Parameters parameters) {
+		params = parameters;
 		rng = new Random();
 		ecosystem = new ArrayList<Species>();
 		log = new ArrayList<String>();
 		errorLog = new ArrayList<String>();
-		// set parameters. Perhaps use NEAT to set NEAT parameters?
 	}
 
 	// PUBLIC METHODS:
+	/**
+	 * Get the parameters this library gives its Species
+	 * 
+	 * @return parameters
+	 */
+	public Parameters getParameters() {
+		return params;
+	}
+
 	/**
 	 * Creates a new Species object with the specified number of inputs and
 	 * outputs. Returns the object to the user.
@@ -103,16 +77,60 @@ public class Braincraft {
 	 * @return Species
 	 */
 	public Species newSpecies(int numInputs, int numOutputs) {
-		return newSpecies(defaultPopulationSize, numInputs, numOutputs);
+		return newSpecies(params.defaultPopulationSize, numInputs, numOutputs);
 	}
 
 	public Species newSpecies(int maxPopulation, int numInputs, int numOutputs) {
-		Species ret = new Species(maxPopulation, numInputs, numOutputs,
-				ecosystem.size());
+		return newSpecies(params, maxPopulation, numInputs, numOutputs);
+	}
+
+	/**
+	 * Creates a new Species object that evolves under its own parameters
+	 * instead of the library's.
+	 * 
+	 * @param parameters
+	 *            parameters for the new Species
+	 * @param maxPopulation
+	 *            population size
+	 * @param numInputs
+	 *            number of inputs to the neural network
+	 * @param numOutputs
+	 *            number of outputs to the neural network
+	 * @return Species
+	 */
+	public synchronized Species newSpecies(Parameters parameters,
+			int maxPopulation, int numInputs, int numOutputs) {
+		Species ret = new Species(this, parameters, new Random(rng.nextLong()),
+				maxPopulation, numInputs, numOutputs, ecosystem.size());
 		ecosystem.add(ret);
 		return ret;
 	}
 
+	/**
+	 * Seeds the library's random number generator. Evolution started after
+	 * this call, including the Species it creates, is fully repeatable.
+	 * 
+	 * @param seed
+	 *            the seed
+	 */
+	public synchronized void setSeed(long seed) {
+		rng.setSeed(seed);
+	}
+
+	/**
+	 * Releases the threads and closes the lineage journals of every Species
+	 * made by this library. See Species.shutdown.
+	 */
+	public void shutdown() {
+		ArrayList<Species> all;
+		synchronized (this) {
+			all = new ArrayList<Species>(ecosystem);
+		}
+		for (Species s : all) {
+			s.shutdown();
+		}
+	}
+
 	/**
 	 * Writes the log messages to a specified file
 	 * 
@@ -120,18 +138,20 @@ public class Braincraft {
 	 *            the file to write to
 	 * @return 1 if successful, -1 if unsuccessful
 	 */
-	public static int writeLog(String file) {
-		String output = "";
-		for (String s : log) {
-			output += s + "\n";
+	public int writeLog(String file) {
+		StringBuilder output = new StringBuilder();
+		synchronized (this) {
+			for (String s : log) {
+				output.append(s).append("\n");
+			}
 		}
 
 		try {
 			BufferedWriter out = new BufferedWriter(new FileWriter(file));
-			out.write(output);
+			out.write(output.toString());
 			out.close();
 		} catch (IOException e) {
-			Braincraft.reportError("Could not write log to location " + file + ".");
+			reportError("Could not write log to location " + file + ".");
 			return -1;
 		}
 		return 1;
@@ -141,12 +161,14 @@ public class Braincraft {
 	/**
 	 * Bernoulli trial with percentage chance
 	 * 
+	 * @param r
+	 *            random number generator to draw from
 	 * @param chance
 	 *            the chance of success for this Bernoulli trial
 	 * @return whether or not the trial was a success
 	 */
-	protected static boolean randomChance(double chance) {
-		if (Math.random() < chance)
+	protected static boolean randomChance(Random r, double chance) {
+		if (r.nextDouble() < chance)
 			return true;
 		return false;
 	}
@@ -154,11 +176,13 @@ public class Braincraft {
 	/**
 	 * Get a random weight value
 	 * 
+	 * @param r
+	 *            random number generator to draw from
 	 * @return double a weight value between -1 and 1
 	 */
-	protected static double randomWeight() {
-		int sign = (int) (Math.random() * 2);
-		double value = Math.random();
+	protected static double randomWeight(Random r) {
+		int sign = r.nextInt(2);
+		double value = r.nextDouble();
 		if (sign == 0) {
 			return value * -1;
 		}
@@ -169,13 +193,39 @@ public class Braincraft {
 	 * Gets a random integer between 0 (inclusive) and the specified range
 	 * (exclusive)
 	 * 
+	 * @param r
+	 *            random number generator to draw from
 	 * @param range
 	 *            get a random number greater than or equal to 0 but less than
 	 *            range
 	 * @return a random integer
 	 */
-	protected static int randomInteger(int range) {
-		return rng.nextInt(range);
+	protected static int randomInteger(Random r, int range) {
+		return r.nextInt(range);
+	}
+
+	/**
+	 * Gets the random number generator set for the current thread
+	 * 
+	 * @return the thread's own generator, or null if none is set
+	 */
+	protected static Random getThreadRandom() {
+		return threadRng.get();
+	}
+
+	/**
+	 * Makes the current thread draw its random numbers from the given
+	 * generator so that work split across threads stays repeatable.
+	 * 
+	 * @param r
+	 *            generator for this thread, or null to go back to the
+	 *            Species' generator
+	 */
+	protected static void setThreadRandom(Random r) {
+		if (r == null)
+			threadRng.remove();
+		else
+			threadRng.set(r);
 	}
 
 	/**
@@ -184,7 +234,7 @@ public class Braincraft {
 	 * @param message
 	 *            message to add to the log
 	 */
-	protected static void report(String message) {
+	protected synchronized void report(String message) {
 		log.add(message);
 	}
 
@@ -193,27 +243,7 @@ public class Braincraft {
 	 * 
 	 * @param message error to report
 	 */
-	protected static void reportError(String message) {
+	protected synchronized void reportError(String message) {
 		errorLog.add(message);
 	}
-
-	// PRIVATE METHODS:
-	/**
-	 * Sets default values for parameters.
-	 */
-	private void setParams() {
-		sigmoidCoefficient = -4.9;
-		c1 = 1.0;
-		c2 = 1.0;
-		c3 = 0.4;
-		compThresh = 3.0;
-		defaultPopulationSize = 150;
-		percentageOfTribeToKillBeforeReproduction = 0.5;
-		perWeightMutationRate = 0.1;
-		weightMutationRate = 0.8;
-		linkMutationRate = 0.3;
-		nodeMutationRate = 0.18;
-		disabledRate = 0.75;
-		inheritFromHigherFitRate = 0.8;
-	}
 }
@@ -0,0 +1,17 @@
+package braincraft;
+
+/**
+ * Exception thrown from inside an evaluation once the Brain being evaluated
+ * has used up its EvaluationBudget. It unwinds the user's fitness function so
+ * the harness can give the Brain a penalty fitness instead.
+ */
+class BudgetExceededException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public BudgetExceededException() {
+	}
+
+	public BudgetExceededException(String msg) {
+		super(msg);
+	}
+}
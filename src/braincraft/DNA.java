@@ -4,6 +4,9 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
 import java.util.Set;
 
 /**
@@ -28,6 +31,10 @@ public class DNA implements Serializable
 	 * A HashMap mapping node IDs to ArrayList's of their incoming genes
 	 */
 	private HashMap<Integer, ArrayList<Gene>> connections;
+	/**
+	 * A HashMap mapping node IDs to ArrayList's of their outgoing genes
+	 */
+	private HashMap<Integer, ArrayList<Gene>> outgoing;
 	/**
 	 * The nodes in this DNA.
 	 */
@@ -42,6 +49,7 @@ public class DNA implements Serializable
 		highest = 0;
 		genes = new HashMap<Integer, Gene>();
 		connections = new HashMap<Integer, ArrayList<Gene>>();
+		outgoing = new HashMap<Integer, ArrayList<Gene>>();
 		nodes = new ArrayList<NNode>();
 	}
 
@@ -59,17 +67,55 @@ public class DNA implements Serializable
 	/**
 	 * Returns a random gene innovation number from within this DNA
 	 * 
+	 * @param r
+	 *            random number generator to draw from
 	 * @return a
 	 */
 	// TODO: Make this faster...
-	protected int getRandomGeneInnovation()
+	protected int getRandomGeneInnovation(Random r)
 	{
 		ArrayList<Integer> intarr = new ArrayList<Integer>();
 		for (Integer i : genes.keySet())
 		{
 			intarr.add(i);
 		}
-		int index = Braincraft.randomInteger(intarr.size());
+		int index = Braincraft.randomInteger(r, intarr.size());
+		return intarr.get(index);
+	}
+
+	/**
+	 * Returns the number of enabled genes in this DNA
+	 * 
+	 * @return number of enabled genes in this DNA
+	 */
+	protected int numEnabledGenes()
+	{
+		int count = 0;
+		for (Gene g : genes.values())
+		{
+			if (g.enabled)
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a random enabled gene innovation number from within this DNA.
+	 * The DNA must have at least one enabled gene.
+	 * 
+	 * @param r
+	 *            random number generator to draw from
+	 * @return innovation number of an enabled gene
+	 */
+	protected int getRandomEnabledGeneInnovation(Random r)
+	{
+		ArrayList<Integer> intarr = new ArrayList<Integer>();
+		for (Gene g : genes.values())
+		{
+			if (g.enabled)
+				intarr.add(g.innovation);
+		}
+		int index = Braincraft.randomInteger(r, intarr.size());
 		return intarr.get(index);
 	}
 
@@ -134,6 +180,22 @@ public class DNA implements Serializable
 		return new ArrayList<Gene>();
 	}
 
+	/**
+	 * Get an ArrayList of all the Genes starting at a particular node
+	 * 
+	 * @param nodeID
+	 *            the starting node
+	 * @return an ArrayList with the genes starting at this node
+	 */
+	protected ArrayList<Gene> getOutgoingGenes(int nodeID)
+	{
+		if (outgoing.containsKey(nodeID))
+		{
+			return outgoing.get(nodeID);
+		}
+		return new ArrayList<Gene>();
+	}
+
 	/**
 	 * Returns true if this DNA has the specified gene
 	 * 
@@ -174,6 +236,113 @@ public class DNA implements Serializable
 		}
 		ArrayList<Gene> addto = connections.get(element.end);
 		addto.add(element);
+
+		if (!outgoing.containsKey(element.start))
+		{
+			outgoing.put(element.start, new ArrayList<Gene>());
+		}
+		outgoing.get(element.start).add(element);
+	}
+
+	/**
+	 * Gives each gene in this DNA a perWeightMutationRate chance of getting a
+	 * new random weight
+	 * 
+	 * @param r
+	 *            random number generator to draw from
+	 * @param perWeightMutationRate
+	 *            chance of each gene getting a new weight
+	 */
+	protected void mutateWeights(Random r, double perWeightMutationRate)
+	{
+		for (Gene g : genes.values())
+		{
+			if (Braincraft.randomChance(r, perWeightMutationRate))
+			{
+				g.weight = Braincraft.randomWeight(r);
+			}
+		}
+	}
+
+	/**
+	 * Removes a gene from the various data structures in this DNA
+	 * 
+	 * @param innovation
+	 *            innovation number of the gene to remove
+	 */
+	protected void removeConnection(int innovation)
+	{
+		Gene element = genes.remove(innovation);
+		if (element == null)
+			return;
+
+		ArrayList<Gene> incoming = connections.get(element.end);
+		incoming.remove(element);
+		if (incoming.isEmpty())
+			connections.remove(element.end);
+
+		ArrayList<Gene> leaving = outgoing.get(element.start);
+		leaving.remove(element);
+		if (leaving.isEmpty())
+			outgoing.remove(element.start);
+
+		if (innovation == highest)
+		{
+			highest = 0;
+			for (Integer i : genes.keySet())
+			{
+				if (i > highest)
+					highest = i;
+			}
+		}
+	}
+
+	/**
+	 * Ages every disabled gene by one generation and removes the genes that
+	 * have been disabled for at least lifetime generations. Hidden nodes that
+	 * are left without any genes are removed as well. Enabled genes have their
+	 * age reset.
+	 * 
+	 * @param lifetime
+	 *            generations a gene may stay disabled before it is removed
+	 * @return number of genes removed
+	 */
+	protected int collectDisabledGenes(int lifetime)
+	{
+		ArrayList<Integer> expired = new ArrayList<Integer>();
+		for (Gene g : genes.values())
+		{
+			if (g.enabled)
+			{
+				g.disabledGenerations = 0;
+			}
+			else if (++g.disabledGenerations >= lifetime)
+			{
+				expired.add(g.innovation);
+			}
+		}
+		if (expired.isEmpty())
+			return 0;
+		for (Integer i : expired)
+		{
+			removeConnection(i);
+		}
+
+		// Drop hidden nodes that no remaining gene touches
+		HashSet<Integer> used = new HashSet<Integer>();
+		for (Gene g : genes.values())
+		{
+			used.add(g.start);
+			used.add(g.end);
+		}
+		Iterator<NNode> it = nodes.iterator();
+		while (it.hasNext())
+		{
+			NNode node = it.next();
+			if (node.type == NNode.HIDDEN && !used.contains(node.ID))
+				it.remove();
+		}
+		return expired.size();
 	}
 
 	// NODE METHODS:
@@ -190,11 +359,13 @@ public class DNA implements Serializable
 	/**
 	 * Get a random node ID from this DNA
 	 * 
+	 * @param r
+	 *            random number generator to draw from
 	 * @return random node ID
 	 */
-	protected int getRandomNodeID()
+	protected int getRandomNodeID(Random r)
 	{
-		return nodes.get(Braincraft.randomInteger(nodes.size())).ID;
+		return nodes.get(Braincraft.randomInteger(r, nodes.size())).ID;
 	}
 
 	/**
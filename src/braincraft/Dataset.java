@@ -0,0 +1,187 @@
+package braincraft;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only supervised dataset memory-mapped from a binary file, so that
+ * datasets far larger than the heap can be used for fitness evaluation. The
+ * mapping is shared by every thread and experiment that uses the Dataset;
+ * rows are read straight out of the page cache.
+ *
+ * The file format is big-endian, as written by DataOutputStream: an int
+ * holding the number of features, an int holding the number of labels, then
+ * one row after another of that many feature doubles followed by that many
+ * label doubles.
+ */
+public class Dataset {
+	/**
+	 * Size of the file header in bytes
+	 */
+	private static final int HEADER_BYTES = 8;
+	/**
+	 * Largest number of bytes mapped in one piece. A single mapping cannot
+	 * exceed 2GB, so larger files are mapped in several segments.
+	 */
+	private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+	// FIELDS:
+	protected int numFeatures;
+	protected int numLabels;
+	protected long numRows;
+	/**
+	 * Number of whole rows held by each segment
+	 */
+	private long rowsPerSegment;
+	/**
+	 * The mapped file, as doubles, in segments of rowsPerSegment rows
+	 */
+	private DoubleBuffer[] segments;
+
+	// CONSTRUCTORS:
+	private Dataset() {
+	}
+
+	// PUBLIC METHODS:
+	/**
+	 * Memory-maps a dataset file.
+	 *
+	 * @param file
+	 *            location of the dataset file
+	 * @return the Dataset, or null if the file could not be mapped
+	 */
+	public static Dataset open(String file) {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				Dataset ret = new Dataset();
+				ret.numFeatures = raf.readInt();
+				ret.numLabels = raf.readInt();
+				if (ret.numFeatures <= 0 || ret.numLabels < 0)
+					return null;
+				long rowBytes = 8L * ((long) ret.numFeatures + ret.numLabels);
+				ret.numRows = (channel.size() - HEADER_BYTES) / rowBytes;
+				ret.rowsPerSegment = Math.max(1, MAX_SEGMENT_BYTES / rowBytes);
+				int numSegments = (int) ((ret.numRows + ret.rowsPerSegment - 1) / ret.rowsPerSegment);
+				ret.segments = new DoubleBuffer[numSegments];
+				for (int s = 0; s < numSegments; s++) {
+					long first = s * ret.rowsPerSegment;
+					long rows = Math.min(ret.rowsPerSegment, ret.numRows - first);
+					MappedByteBuffer map = channel.map(
+							FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first
+									* rowBytes, rows * rowBytes);
+					ret.segments[s] = map.asDoubleBuffer();
+				}
+				// The mappings stay valid after the file is closed
+				return ret;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+		}
+		return null;
+	}
+
+	/**
+	 * Writes a dataset file that can be opened with open. The number of
+	 * features and labels is taken from the first row, so there must be at
+	 * least one row, every feature row must have the same non-zero length
+	 * and every label row the same length.
+	 *
+	 * @param file
+	 *            location of the dataset file
+	 * @param features
+	 *            feature rows
+	 * @param labels
+	 *            label rows, one for each feature row
+	 * @return 1 if successful, -1 if unsuccessful or the rows do not fit the
+	 *         format
+	 */
+	public static int write(String file, double[][] features, double[][] labels) {
+		if (features.length == 0 || labels.length != features.length
+				|| features[0].length == 0)
+			return -1;
+		for (int r = 0; r < features.length; r++) {
+			if (features[r].length != features[0].length
+					|| labels[r].length != labels[0].length)
+				return -1;
+		}
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(file)));
+			try {
+				out.writeInt(features[0].length);
+				out.writeInt(labels[0].length);
+				for (int r = 0; r < features.length; r++) {
+					for (double d : features[r]) {
+						out.writeDouble(d);
+					}
+					for (double d : labels[r]) {
+						out.writeDouble(d);
+					}
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			return -1;
+		}
+		return 1;
+	}
+
+	/**
+	 * Get the number of rows in this Dataset
+	 *
+	 * @return number of rows
+	 */
+	public long getNumRows() {
+		return numRows;
+	}
+
+	public int getNumFeatures() {
+		return numFeatures;
+	}
+
+	public int getNumLabels() {
+		return numLabels;
+	}
+
+	// LIBRARY METHODS:
+	/**
+	 * Copies consecutive rows into caller-owned buffers. Only absolute reads
+	 * are used, so any number of threads may read at once.
+	 *
+	 * @param first
+	 *            index of the first row to read
+	 * @param count
+	 *            number of rows to read
+	 * @param features
+	 *            receives the feature rows; needs at least count rows
+	 * @param labels
+	 *            receives the label rows; needs at least count rows
+	 */
+	protected void readRows(long first, int count, double[][] features,
+			double[][] labels) {
+		int rowDoubles = numFeatures + numLabels;
+		for (int r = 0; r < count; r++) {
+			long row = first + r;
+			DoubleBuffer segment = segments[(int) (row / rowsPerSegment)];
+			int base = (int) (row % rowsPerSegment) * rowDoubles;
+			double[] f = features[r];
+			for (int i = 0; i < numFeatures; i++) {
+				f[i] = segment.get(base + i);
+			}
+			double[] l = labels[r];
+			for (int i = 0; i < numLabels; i++) {
+				l[i] = segment.get(base + numFeatures + i);
+			}
+		}
+	}
+}
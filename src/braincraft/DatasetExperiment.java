@@ -0,0 +1,241 @@
+package braincraft;
+
+/**
+ * A ThoughtExperiment that scores each Brain on a memory-mapped supervised
+ * Dataset. Rows are streamed through batched evaluation, so the dataset is
+ * never loaded onto the heap, and a single Dataset can be shared by many
+ * experiments at once.
+ */
+public class DatasetExperiment extends RacingExperiment
+{
+	/**
+	 * Fitness is the fraction of rows classified correctly. With one output,
+	 * a row is correct when the output and label fall on the same side of
+	 * 0.5; with several, when the largest output is at the largest label.
+	 */
+	public static final int ACCURACY = 1;
+	/**
+	 * Fitness is 1 minus the mean squared error over every output
+	 */
+	public static final int MEAN_SQUARED_ERROR = 2;
+	/**
+	 * Fitness is 1 / (1 + mean log-loss) over every output, treating each
+	 * output as the probability of a label in [0, 1]
+	 */
+	public static final int LOG_LOSS = 3;
+	/**
+	 * Number of rows handed to evaluateBatch at once
+	 */
+	private static final int ROWS_PER_BATCH = 256;
+	/**
+	 * Outputs are clamped this far from 0 and 1 before taking logarithms
+	 */
+	private static final double EPSILON = 1e-15;
+
+	Dataset data;
+	int loss;
+	/**
+	 * Rows Brains are tuned on, read when first needed
+	 */
+	private double[][] tuningFeatures;
+	private double[][] tuningLabels;
+
+	/**
+	 * Constructor for a new DatasetExperiment.
+	 *
+	 * @param dataset
+	 *            the data to score Brains on
+	 * @param lossType
+	 *            ACCURACY, MEAN_SQUARED_ERROR or LOG_LOSS
+	 * @param popSize
+	 *            population size of the experiment's Species
+	 */
+	public DatasetExperiment(Dataset dataset, int lossType, int popSize)
+	{
+		this(dataset, lossType, popSize, new Parameters.Builder().build());
+	}
+
+	/**
+	 * Constructor for a new DatasetExperiment evolving under the given
+	 * parameters.
+	 *
+	 * @param dataset
+	 *            the data to score Brains on
+	 * @param lossType
+	 *            ACCURACY, MEAN_SQUARED_ERROR or LOG_LOSS
+	 * @param popSize
+	 *            population size of the experiment's Species
+	 * @param params
+	 *            NEAT parameters of the experiment
+	 */
+	public DatasetExperiment(Dataset dataset, int lossType, int popSize,
+			Parameters params)
+	{
+		super(params);
+		data = dataset;
+		loss = lossType;
+		createSpecies(popSize, data.numFeatures, data.numLabels);
+	}
+
+	void evaluate(Brain b)
+	{
+		double total = scoreRows(b, 0, data.numRows, true);
+		b.reportFitness(toFitness(total, data.numRows));
+	}
+
+	/**
+	 * Tunes the Brain by backpropagation on the first tuningRows rows when
+	 * the Species' tuningEpochs is above 0. The squared error is minimized
+	 * whatever the loss type, as a smooth stand-in for it.
+	 */
+	void tune(Brain b)
+	{
+		Parameters params = spec.getParameters();
+		if (params.tuningEpochs <= 0)
+			return;
+		if (tuningFeatures == null)
+		{
+			int count = (int) Math.min(params.tuningRows, data.numRows);
+			double[][] features = new double[count][data.numFeatures];
+			double[][] labels = new double[count][data.numLabels];
+			data.readRows(0, count, features, labels);
+			tuningLabels = labels;
+			tuningFeatures = features;
+		}
+		try
+		{
+			b.train(tuningFeatures, tuningLabels, params.tuningEpochs,
+					params.tuningLearningRate);
+		}
+		catch (NetworkInputException e)
+		{
+			// The Species was created from the Dataset's shape
+			throw new IllegalStateException(
+					"Dataset rows do not match the Species inputs.", e);
+		}
+	}
+
+	/**
+	 * Rows are the episodes of a race. Rows should be stored in random order
+	 * so that every range of rows is a fair sample.
+	 */
+	double evaluateEpisodes(Brain b, long first, long count)
+	{
+		return scoreRows(b, first, count, false);
+	}
+
+	double episodeFitness(double sum, long count)
+	{
+		return toFitness(sum, count);
+	}
+
+	/**
+	 * Streams a range of rows through the Brain and sums their scores.
+	 *
+	 * @param b
+	 *            the Brain to score
+	 * @param start
+	 *            index of the first row
+	 * @param numRows
+	 *            number of rows
+	 * @param reportBound
+	 *            whether to report the best reachable accuracy after each
+	 *            batch, so a budget's fitness cutoff can end the evaluation
+	 * @return summed row scores
+	 */
+	private double scoreRows(Brain b, long start, long numRows,
+			boolean reportBound)
+	{
+		double[][] features = new double[ROWS_PER_BATCH][data.numFeatures];
+		double[][] labels = new double[ROWS_PER_BATCH][data.numLabels];
+		double total = 0.0;
+		for (long done = 0; done < numRows; done += ROWS_PER_BATCH)
+		{
+			int count = (int) Math.min(ROWS_PER_BATCH, numRows - done);
+			if (count < ROWS_PER_BATCH)
+			{
+				features = new double[count][data.numFeatures];
+				labels = new double[count][data.numLabels];
+			}
+			data.readRows(start + done, count, features, labels);
+			double[][] outputs;
+			try
+			{
+				outputs = b.evaluateBatch(features);
+			}
+			catch (NetworkInputException e)
+			{
+				// The Species was created from the Dataset's shape
+				throw new IllegalStateException(
+						"Dataset rows do not match the Species inputs.", e);
+			}
+			for (int r = 0; r < count; r++)
+			{
+				total += score(outputs[r], labels[r]);
+			}
+			if (reportBound && loss == ACCURACY)
+			{
+				// Even getting every remaining row right may not be enough
+				long remaining = numRows - done - count;
+				b.reportFitnessBound((total + remaining) / numRows);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Scores one row: 1 or 0 for accuracy, otherwise the summed loss of its
+	 * outputs
+	 */
+	private double score(double[] output, double[] label)
+	{
+		if (loss == ACCURACY)
+		{
+			if (output.length == 1)
+				return (output[0] >= 0.5) == (label[0] >= 0.5) ? 1 : 0;
+			return argmax(output) == argmax(label) ? 1 : 0;
+		}
+		double sum = 0.0;
+		for (int i = 0; i < output.length; i++)
+		{
+			if (loss == MEAN_SQUARED_ERROR)
+			{
+				double d = output[i] - label[i];
+				sum += d * d;
+			}
+			else
+			{
+				double p = Math.min(1 - EPSILON, Math.max(EPSILON, output[i]));
+				sum -= label[i] * Math.log(p) + (1 - label[i]) * Math.log(1 - p);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Turns the summed scores of some rows into a fitness where higher is
+	 * better
+	 */
+	private double toFitness(double total, long numRows)
+	{
+		if (numRows == 0)
+			return 0;
+		if (loss == ACCURACY)
+			return total / numRows;
+		double mean = total / (numRows * (double) data.numLabels);
+		if (loss == MEAN_SQUARED_ERROR)
+			return 1 - mean;
+		return 1 / (1 + mean);
+	}
+
+	private static int argmax(double[] values)
+	{
+		int best = 0;
+		for (int i = 1; i < values.length; i++)
+		{
+			if (values[i] > values[best])
+				best = i;
+		}
+		return best;
+	}
+}
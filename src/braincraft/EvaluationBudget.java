@@ -0,0 +1,73 @@
+package braincraft;
+
+/**
+ * Limits on how much work a single Brain evaluation may do. A Brain that runs
+ * out of budget is cut off cooperatively: the next call it makes to evaluate,
+ * evaluateBatch, checkBudget or reportFitnessBound throws a
+ * BudgetExceededException, and the Brain is given the penalty fitness.
+ */
+public class EvaluationBudget {
+	// FIELDS:
+	/**
+	 * Maximum wall time of one evaluation in milliseconds. 0 means no limit.
+	 */
+	protected long maxMillis;
+	/**
+	 * Maximum number of network activations (input rows evaluated) in one
+	 * evaluation. 0 means no limit.
+	 */
+	protected long maxActivations;
+	/**
+	 * An evaluation is cut off as soon as the fitness it can still reach
+	 * falls below this value
+	 */
+	protected double fitnessCutoff;
+	/**
+	 * Fitness given to a Brain whose evaluation was cut off
+	 */
+	protected double penaltyFitness;
+
+	// CONSTRUCTORS:
+	/**
+	 * Constructor for a new EvaluationBudget.
+	 *
+	 * @param maxMillis
+	 *            maximum wall time of one evaluation in milliseconds, or 0
+	 *            for no limit
+	 * @param maxActivations
+	 *            maximum number of network activations in one evaluation, or
+	 *            0 for no limit
+	 * @param fitnessCutoff
+	 *            lowest reachable fitness worth finishing an evaluation for,
+	 *            or Double.NEGATIVE_INFINITY to never cut off on fitness
+	 * @param penaltyFitness
+	 *            fitness given to Brains whose evaluation is cut off
+	 */
+	public EvaluationBudget(long maxMillis, long maxActivations,
+			double fitnessCutoff, double penaltyFitness) {
+		this.maxMillis = maxMillis;
+		this.maxActivations = maxActivations;
+		this.fitnessCutoff = fitnessCutoff;
+		this.penaltyFitness = penaltyFitness;
+	}
+
+	// LIBRARY METHODS:
+	/**
+	 * Returns true if an evaluation that started at the given time and has
+	 * made the given number of activations is out of budget.
+	 *
+	 * @param startNanos
+	 *            System.nanoTime() when the evaluation started
+	 * @param activations
+	 *            network activations made so far
+	 * @return whether the evaluation should be cut off
+	 */
+	protected boolean isExceeded(long startNanos, long activations) {
+		if (maxActivations > 0 && activations > maxActivations)
+			return true;
+		if (maxMillis > 0
+				&& System.nanoTime() - startNanos > maxMillis * 1000000L)
+			return true;
+		return false;
+	}
+}
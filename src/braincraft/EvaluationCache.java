@@ -0,0 +1,108 @@
+package braincraft;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded memo of a Brain's outputs for the input vectors it has seen most
+ * recently. Inputs are found by hash and then compared exactly, so a hit
+ * always returns the outputs the network would compute. The least recently
+ * used entry is evicted when the cache is full. The cache must be cleared
+ * whenever the network changes.
+ */
+class EvaluationCache {
+	// FIELDS:
+	private final int capacity;
+	private LinkedHashMap<Key, double[]> entries;
+	private long hits;
+	private long misses;
+
+	// CONSTRUCTORS:
+	/**
+	 * @param size
+	 *            largest number of input vectors remembered
+	 */
+	protected EvaluationCache(int size) {
+		capacity = size;
+		// Access order makes iteration order least recently used first
+		entries = new LinkedHashMap<Key, double[]>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Key, double[]> e) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	// LIBRARY METHODS:
+	/**
+	 * Looks up the outputs for an input vector, counting a hit or a miss
+	 *
+	 * @param inputs
+	 *            input vector
+	 * @return a copy of the remembered outputs, or null if there are none
+	 */
+	protected synchronized double[] get(double[] inputs) {
+		double[] outputs = entries.get(new Key(inputs));
+		if (outputs == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return outputs.clone();
+	}
+
+	/**
+	 * Remembers the outputs for an input vector. Both arrays are copied.
+	 *
+	 * @param inputs
+	 *            input vector
+	 * @param outputs
+	 *            outputs the network computed for it
+	 */
+	protected synchronized void put(double[] inputs, double[] outputs) {
+		entries.put(new Key(inputs.clone()), outputs.clone());
+	}
+
+	/**
+	 * Forgets every remembered output. The hit and miss counts are kept.
+	 */
+	protected synchronized void clear() {
+		entries.clear();
+	}
+
+	protected synchronized long getHits() {
+		return hits;
+	}
+
+	protected synchronized long getMisses() {
+		return misses;
+	}
+
+	protected synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * An input vector with its hash computed once
+	 */
+	private static class Key {
+		private final double[] values;
+		private final int hash;
+
+		private Key(double[] v) {
+			values = v;
+			hash = Arrays.hashCode(v);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return hash == k.hash && Arrays.equals(values, k.values);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package braincraft;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events emitted by the library. They cost next to
+ * nothing unless a recording enables them, for example with
+ * -XX:StartFlightRecording or JDK Mission Control, where they show up under
+ * the Braincraft category.
+ */
+final class FlightEvents {
+	/**
+	 * One in this many calls to Brain.evaluate and Brain.evaluateBatch is
+	 * recorded. Must be a power of two.
+	 */
+	protected static final int EVALUATION_SAMPLE = 64;
+	/**
+	 * Type of the Evaluation event, checked before any sampling is done
+	 */
+	private static final EventType EVALUATION_TYPE = EventType
+			.getEventType(Evaluation.class);
+	/**
+	 * Evaluations counted on each thread while the Evaluation event is
+	 * enabled. Kept per thread so evaluating threads never write to shared
+	 * memory.
+	 */
+	private static final ThreadLocal<int[]> evaluations = new ThreadLocal<int[]>() {
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	private FlightEvents() {
+	}
+
+	// LIBRARY METHODS:
+	/**
+	 * Starts timing a phase of a new generation
+	 *
+	 * @param speciesID
+	 *            ID of the Species
+	 * @param generation
+	 *            generation being made
+	 * @param phase
+	 *            name of the phase
+	 * @return the started event, to commit at the end of the phase
+	 */
+	protected static GenerationPhase startPhase(int speciesID, int generation,
+			String phase) {
+		GenerationPhase event = new GenerationPhase();
+		if (event.isEnabled()) {
+			event.speciesID = speciesID;
+			event.generation = generation;
+			event.phase = phase;
+			event.begin();
+		}
+		return event;
+	}
+
+	/**
+	 * Counts an evaluation and decides whether it is recorded. Nothing is
+	 * counted unless a recording has enabled the Evaluation event.
+	 *
+	 * @return true for one in EVALUATION_SAMPLE evaluations on each thread
+	 */
+	protected static boolean sampleEvaluation() {
+		if (!EVALUATION_TYPE.isEnabled())
+			return false;
+		int[] count = evaluations.get();
+		return (++count[0] & (EVALUATION_SAMPLE - 1)) == 0;
+	}
+
+	/**
+	 * Starts timing a mutation
+	 *
+	 * @param spec
+	 *            Species of the mutated genome
+	 * @param brainID
+	 *            ID of the mutated Brain, or -1 if it is not born yet
+	 * @param operator
+	 *            name of the mutation
+	 * @return the started event, to commit once the mutation is done
+	 */
+	protected static Mutation startMutation(Species spec, int brainID,
+			String operator) {
+		Mutation event = new Mutation();
+		if (event.isEnabled()) {
+			event.speciesID = spec.getID();
+			event.generation = spec.numGenerations;
+			event.brainID = brainID;
+			event.operator = operator;
+			event.begin();
+		}
+		return event;
+	}
+
+	/**
+	 * Commits a mutation event, if it is recorded
+	 *
+	 * @param event
+	 *            event returned by startMutation
+	 * @param dna
+	 *            the mutated genome
+	 */
+	protected static void endMutation(Mutation event, DNA dna) {
+		if (event.shouldCommit()) {
+			event.genomeSize = dna.numGenes();
+			event.commit();
+		}
+	}
+
+	// EVENTS:
+	@Name("braincraft.GenerationPhase")
+	@Label("Generation Phase")
+	@Description("One phase of breeding a new generation")
+	@Category("Braincraft")
+	static class GenerationPhase extends Event {
+		@Label("Species")
+		int speciesID;
+		@Label("Generation")
+		int generation;
+		@Label("Phase")
+		String phase;
+	}
+
+	@Name("braincraft.Speciation")
+	@Label("Speciation")
+	@Description("Finding a Tribe for a Brain")
+	@Category("Braincraft")
+	static class Speciation extends Event {
+		@Label("Species")
+		int speciesID;
+		@Label("Generation")
+		int generation;
+		@Label("Brain")
+		int brainID;
+		@Label("Tribe")
+		int tribeID;
+		@Label("Genome Size")
+		@Description("Number of genes in the Brain's DNA")
+		int genomeSize;
+		@Label("Tribes")
+		int numTribes;
+		@Label("Representatives Compared")
+		@Description("Representatives compared gene by gene after pruning")
+		int comparisons;
+		@Label("New Tribe")
+		boolean newTribe;
+	}
+
+	@Name("braincraft.Crossover")
+	@Label("Crossover")
+	@Description("Breeding one genome from two parents")
+	@Category("Braincraft")
+	static class Crossover extends Event {
+		@Label("Species")
+		int speciesID;
+		@Label("Generation")
+		int generation;
+		@Label("Mother")
+		int motherID;
+		@Label("Father")
+		int fatherID;
+		@Label("Genome Size")
+		@Description("Number of genes in the child's DNA")
+		int genomeSize;
+	}
+
+	@Name("braincraft.Mutation")
+	@Label("Mutation")
+	@Description("One mutation operator applied to a genome")
+	@Category("Braincraft")
+	static class Mutation extends Event {
+		@Label("Species")
+		int speciesID;
+		@Label("Generation")
+		int generation;
+		@Label("Brain")
+		@Description("-1 for a genome whose Brain is not born yet")
+		int brainID;
+		@Label("Operator")
+		String operator;
+		@Label("Genome Size")
+		@Description("Number of genes after the mutation")
+		int genomeSize;
+	}
+
+	@Name("braincraft.Evaluation")
+	@Label("Evaluation")
+	@Description("A sampled network evaluation")
+	@Category("Braincraft")
+	static class Evaluation extends Event {
+		@Label("Species")
+		int speciesID;
+		@Label("Generation")
+		int generation;
+		@Label("Brain")
+		int brainID;
+		@Label("Genome Size")
+		@Description("Number of genes in the Brain's DNA")
+		int genomeSize;
+		@Label("Rows")
+		@Description("Number of input rows evaluated")
+		int rows;
+	}
+}
@@ -0,0 +1,163 @@
+package braincraft;
+
+/**
+ * A Phenotype that stores its weights and computes its activations in single
+ * precision, used when the Species' singlePrecision parameter is set. It
+ * takes half the memory of a Phenotype for weights and value buffers, and
+ * the batched kernel fits twice as many rows in each vector register.
+ * Results are widened to double, and agree with a Phenotype's to about
+ * seven significant digits.
+ *
+ * The genome itself stays in double precision: a Gene's object header and
+ * padding mean a float weight would not make it any smaller, and mutation,
+ * crossover and speciation are left exactly as they are.
+ */
+class FloatPhenotype extends Phenotype {
+	// FIELDS:
+	/**
+	 * Weight of each outgoing input connection
+	 */
+	protected float[] outgoingFloatWeights;
+	/**
+	 * Weight of each incoming connection
+	 */
+	protected float[] floatWeights;
+	protected float floatCoefficient;
+
+	// CONSTRUCTORS:
+	/**
+	 * Builds the single-precision Phenotype for a DNA belonging to the given
+	 * Species.
+	 *
+	 * @param dna
+	 *            the genome to flatten
+	 * @param spec
+	 *            Species the genome belongs to
+	 */
+	protected FloatPhenotype(DNA dna, Species spec) {
+		super(dna, spec);
+		floatWeights = toFloats(weights);
+		outgoingFloatWeights = toFloats(outgoingWeights);
+		floatCoefficient = (float) sigmoidCoefficient;
+		// Only the float copies are used from here on
+		weights = null;
+		outgoingWeights = null;
+	}
+
+	// EVALUATION METHODS:
+	protected double[] evaluate(double[] inputs) {
+		float coefficient = floatCoefficient;
+		float[] values = new float[nodeIDs.length];
+		for (int i = 0; i < numInputs; i++) {
+			values[i] = (float) inputs[i];
+		}
+		for (int slot = numInputs; slot < values.length; slot++) {
+			int k = slot - numInputs;
+			float sum = 0.0f;
+			for (int e = firstIncoming[k]; e < firstIncoming[k + 1]; e++) {
+				sum += floatWeights[e] * values[sources[e]];
+			}
+			values[slot] = sigmoid(sum, coefficient);
+		}
+		double[] ret = new double[numOutputs];
+		for (int i = 0; i < numOutputs; i++) {
+			ret[i] = values[outputSlots[i]];
+		}
+		return ret;
+	}
+
+	protected double[] evaluateSparse(int[] indexes, double[] inputs) {
+		float coefficient = floatCoefficient;
+		int numComputed = nodeIDs.length - numInputs;
+		float[] values = new float[numComputed];
+
+		// Scatter the active inputs into the sums of the nodes they feed
+		for (int a = 0; a < indexes.length; a++) {
+			int i = indexes[a];
+			float x = (float) inputs[a];
+			for (int e = firstOutgoing[i]; e < firstOutgoing[i + 1]; e++) {
+				values[outgoingTargets[e]] += outgoingFloatWeights[e] * x;
+			}
+		}
+
+		// Finish each sum with the connections between computed slots
+		for (int k = 0; k < numComputed; k++) {
+			float sum = values[k];
+			for (int e = firstComputedIncoming[k]; e < firstIncoming[k + 1]; e++) {
+				sum += floatWeights[e] * values[sources[e] - numInputs];
+			}
+			values[k] = sigmoid(sum, coefficient);
+		}
+		double[] ret = new double[numOutputs];
+		for (int i = 0; i < numOutputs; i++) {
+			ret[i] = values[outputSlots[i] - numInputs];
+		}
+		return ret;
+	}
+
+	protected double[][] evaluateBatch(double[][] inputs) {
+		float coefficient = floatCoefficient;
+		double[][] ret = new double[inputs.length][numOutputs];
+		float[] values = new float[nodeIDs.length * BATCH_BLOCK];
+		for (int first = 0; first < inputs.length; first += BATCH_BLOCK) {
+			int rows = Math.min(BATCH_BLOCK, inputs.length - first);
+
+			// Transpose the input rows into their slots
+			for (int r = 0; r < rows; r++) {
+				double[] row = inputs[first + r];
+				for (int i = 0; i < numInputs; i++) {
+					values[i * BATCH_BLOCK + r] = (float) row[i];
+				}
+			}
+
+			// Weighted sums, one connection at a time across the block
+			for (int slot = numInputs; slot < nodeIDs.length; slot++) {
+				int k = slot - numInputs;
+				int dst = slot * BATCH_BLOCK;
+				for (int r = 0; r < rows; r++) {
+					values[dst + r] = 0.0f;
+				}
+				for (int e = firstIncoming[k]; e < firstIncoming[k + 1]; e++) {
+					float w = floatWeights[e];
+					int src = sources[e] * BATCH_BLOCK;
+					for (int r = 0; r < rows; r++) {
+						values[dst + r] += w * values[src + r];
+					}
+				}
+				for (int r = 0; r < rows; r++) {
+					values[dst + r] = sigmoid(values[dst + r], coefficient);
+				}
+			}
+
+			// Transpose the outputs back into rows
+			for (int i = 0; i < numOutputs; i++) {
+				int src = outputSlots[i] * BATCH_BLOCK;
+				for (int r = 0; r < rows; r++) {
+					ret[first + r][i] = values[src + r];
+				}
+			}
+		}
+		return ret;
+	}
+
+	// HELPER METHODS:
+	/**
+	 * The network's activation function in single precision.
+	 */
+	protected static float sigmoid(float sum, float coefficient) {
+		return 1 / (1 + (float) Math.exp(sum * coefficient));
+	}
+
+	private static float[] toFloats(double[] values) {
+		float[] ret = new float[values.length];
+		for (int i = 0; i < values.length; i++) {
+			ret[i] = (float) values[i];
+		}
+		return ret;
+	}
+
+	/**
+	 * Version ID for serialization
+	 */
+	private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,292 @@
+package braincraft;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+/**
+ * An immutable inference model made from a Brain with Brain.freeze(). It
+ * holds only flat primitive arrays and has no link to its Species, so it can
+ * be shared freely: any number of threads may call evaluate at once without
+ * locking, each using its own scratch buffer.
+ */
+public final class FrozenBrain implements Serializable {
+	/**
+	 * Marks the start of a FrozenBrain's binary form
+	 */
+	private static final int MAGIC = 0x4272466e;
+	private static final int VERSION = 1;
+
+	// FIELDS:
+	private final int numInputs;
+	private final int numOutputs;
+	private final int numSlots;
+	private final double sigmoidCoefficient;
+	private final int[] outputSlots;
+	private final int[] firstIncoming;
+	private final int[] sources;
+	private final double[] weights;
+	/**
+	 * Per-thread value buffer
+	 */
+	private final transient ThreadLocal<double[]> scratch;
+
+	// CONSTRUCTORS:
+	/**
+	 * Freezes a Phenotype, fixing the sigmoid coefficient in use now.
+	 *
+	 * @param p
+	 *            the Phenotype to freeze
+	 */
+	protected FrozenBrain(Phenotype p) {
+		this(p.numInputs, p.numOutputs, p.nodeIDs.length,
+				p.sigmoidCoefficient, p.outputSlots.clone(),
+				p.firstIncoming.clone(), p.sources.clone(), p.weights.clone());
+	}
+
+	private FrozenBrain(int inputs, int outputs, int slots, double coefficient,
+			int[] outSlots, int[] first, int[] src, double[] w) {
+		numInputs = inputs;
+		numOutputs = outputs;
+		numSlots = slots;
+		sigmoidCoefficient = coefficient;
+		outputSlots = outSlots;
+		firstIncoming = first;
+		sources = src;
+		weights = w;
+		scratch = new ThreadLocal<double[]>() {
+			protected double[] initialValue() {
+				return new double[numSlots];
+			}
+		};
+	}
+
+	// PUBLIC METHODS:
+	public int getNumInputs() {
+		return numInputs;
+	}
+
+	public int getNumOutputs() {
+		return numOutputs;
+	}
+
+	/**
+	 * Determines the outputs for the given inputs. Safe to call from many
+	 * threads at once.
+	 *
+	 * @param inputs
+	 *            one value per input
+	 * @return one value per output
+	 * @throws NetworkInputException
+	 */
+	public double[] evaluate(double[] inputs) throws NetworkInputException {
+		double[] ret = new double[numOutputs];
+		evaluate(inputs, ret);
+		return ret;
+	}
+
+	/**
+	 * Determines the outputs for the given inputs without allocating. Safe to
+	 * call from many threads at once.
+	 *
+	 * @param inputs
+	 *            one value per input
+	 * @param outputs
+	 *            receives one value per output
+	 * @throws NetworkInputException
+	 */
+	public void evaluate(double[] inputs, double[] outputs)
+			throws NetworkInputException {
+		if (inputs.length != numInputs || outputs.length != numOutputs)
+			throw new NetworkInputException(
+					"Input or output array did not contain as many elements as the frozen Brain.");
+		double[] values = scratch.get();
+		System.arraycopy(inputs, 0, values, 0, numInputs);
+		for (int slot = numInputs; slot < numSlots; slot++) {
+			int k = slot - numInputs;
+			double sum = 0.0;
+			for (int e = firstIncoming[k]; e < firstIncoming[k + 1]; e++) {
+				sum += weights[e] * values[sources[e]];
+			}
+			values[slot] = Phenotype.sigmoid(sum, sigmoidCoefficient);
+		}
+		for (int i = 0; i < numOutputs; i++) {
+			outputs[i] = values[outputSlots[i]];
+		}
+	}
+
+	// PUBLIC I/O:
+	/**
+	 * Returns the compact binary form of this FrozenBrain
+	 *
+	 * @return bytes that fromBytes turns back into an equal FrozenBrain
+	 */
+	public byte[] toBytes() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(numInputs);
+			out.writeInt(numOutputs);
+			out.writeInt(numSlots);
+			out.writeDouble(sigmoidCoefficient);
+			for (int s : outputSlots) {
+				out.writeInt(s);
+			}
+			for (int f : firstIncoming) {
+				out.writeInt(f);
+			}
+			for (int s : sources) {
+				out.writeInt(s);
+			}
+			for (double w : weights) {
+				out.writeDouble(w);
+			}
+			out.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// Writing to memory cannot fail
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads a FrozenBrain from its binary form
+	 *
+	 * @param data
+	 *            bytes made by toBytes
+	 * @return the FrozenBrain, or null if the bytes are not a FrozenBrain
+	 */
+	public static FrozenBrain fromBytes(byte[] data) {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+					data));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			int inputs = in.readInt();
+			int outputs = in.readInt();
+			int slots = in.readInt();
+			double coefficient = in.readDouble();
+			// Check every size against the bytes left before allocating
+			long remaining = in.available();
+			if (inputs < 0 || outputs < 0 || slots < inputs
+					|| 4L * outputs + 4L * (slots - inputs + 1) > remaining)
+				return null;
+			int[] outSlots = new int[outputs];
+			for (int i = 0; i < outputs; i++) {
+				outSlots[i] = in.readInt();
+				if (outSlots[i] < 0 || outSlots[i] >= slots)
+					return null;
+			}
+			int[] first = new int[slots - inputs + 1];
+			for (int i = 0; i < first.length; i++) {
+				first[i] = in.readInt();
+				if (i == 0 ? first[i] != 0 : first[i] < first[i - 1])
+					return null;
+			}
+			int numConnections = first[first.length - 1];
+			if (12L * numConnections > in.available())
+				return null;
+			int[] src = new int[numConnections];
+			for (int k = 0; k < first.length - 1; k++) {
+				for (int e = first[k]; e < first[k + 1]; e++) {
+					src[e] = in.readInt();
+					if (src[e] < 0 || src[e] >= inputs + k)
+						return null;
+				}
+			}
+			double[] w = new double[numConnections];
+			for (int i = 0; i < numConnections; i++) {
+				w[i] = in.readDouble();
+			}
+			return new FrozenBrain(inputs, outputs, slots, coefficient,
+					outSlots, first, src, w);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Saves this FrozenBrain's binary form to a file
+	 *
+	 * @param file
+	 *            output file
+	 * @return 1 if successful, -1 if unsuccessful
+	 */
+	public int save(String file) {
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(toBytes());
+			out.close();
+		} catch (IOException e) {
+			return -1;
+		}
+		return 1;
+	}
+
+	/**
+	 * Loads a FrozenBrain saved with save
+	 *
+	 * @param file
+	 *            location of the saved FrozenBrain
+	 * @return the FrozenBrain, or null if it could not be loaded
+	 */
+	public static FrozenBrain load(String file) {
+		try {
+			File f = new File(file);
+			byte[] data = new byte[(int) f.length()];
+			DataInputStream in = new DataInputStream(new FileInputStream(f));
+			in.readFully(data);
+			in.close();
+			return fromBytes(data);
+		} catch (IOException e) {
+		}
+		return null;
+	}
+
+	// JAVA INTERFACE HELPERS:
+	/**
+	 * Java serialization stores the compact binary form
+	 */
+	private Object writeReplace() {
+		return new SerializedForm(toBytes());
+	}
+
+	private void readObject(ObjectInputStream in) throws InvalidObjectException {
+		throw new InvalidObjectException("FrozenBrain is read through its binary form.");
+	}
+
+	/**
+	 * Stand-in written by Java serialization in place of a FrozenBrain
+	 */
+	private static class SerializedForm implements Serializable {
+		private final byte[] data;
+
+		SerializedForm(byte[] d) {
+			data = d;
+		}
+
+		private Object readResolve() throws InvalidObjectException {
+			FrozenBrain ret = fromBytes(data);
+			if (ret == null)
+				throw new InvalidObjectException("Corrupt frozen Brain.");
+			return ret;
+		}
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Version ID for serialization
+	 */
+	private static final long serialVersionUID = 1L;
+}
@@ -9,6 +9,10 @@ public class Gene implements Serializable
 	protected double weight;
 	protected int innovation;
 	protected boolean enabled;
+	/**
+	 * Number of consecutive generations this gene has been disabled
+	 */
+	protected int disabledGenerations;
 
 	protected Gene(int startNode, int endNode, double weightValue, Species spec)
 	{
@@ -26,6 +30,7 @@ public class Gene implements Serializable
 		weight = g.weight;
 		innovation = g.innovation;
 		enabled = g.enabled;
+		disabledGenerations = g.disabledGenerations;
 	}
 
 	protected Gene()
@@ -0,0 +1,572 @@
+package braincraft;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * An off-heap, columnar store for the genomes of one Species. All genes of
+ * all genomes live in a few direct buffers, one column each for innovation
+ * numbers, start nodes, end nodes, weights and enabled flags. Each genome's
+ * genes are contiguous and sorted by innovation number, and a table (also
+ * off-heap) holds where each genome starts and how many genes it has. A
+ * million genomes are then a handful of objects for the garbage collector
+ * instead of millions of Genes, HashMaps and ArrayLists.
+ *
+ * Crossover, mutation and compatibility distance work on the packed genes
+ * directly and follow the same rules, parameters and innovation registry as
+ * Brains of the Species. Genomes are appended; a mutation that adds genes
+ * rewrites its genome at the end of the store, and retain reclaims the space
+ * of genomes and old copies that are no longer needed. Use add to pack a
+ * Brain and toBrain to get one back for evaluation.
+ *
+ * The store is a building block, not a population: the Species' own
+ * generations are still bred as Brains, and a program that evolves
+ * genomes in a store drives selection, breeding and evaluation itself.
+ *
+ * Direct buffers are limited by -XX:MaxDirectMemorySize, which defaults to
+ * about the maximum heap size. A store larger than the heap needs that flag
+ * raised. The buffers grow by doubling and never shrink; retain compacts
+ * genomes within them.
+ *
+ * A GenomeStore is not thread-safe. While it is reachable, the Species keeps
+ * the innovations and nodes it uses in its registries.
+ */
+public class GenomeStore {
+	/**
+	 * Bytes per gene: innovation, start and end ints, a double weight and an
+	 * enabled byte
+	 */
+	private static final int GENE_BYTES = 4 + 4 + 4 + 8 + 1;
+
+	// FIELDS:
+	private final Species species;
+	private IntBuffer innovations;
+	private IntBuffer starts;
+	private IntBuffer ends;
+	private DoubleBuffer weights;
+	private ByteBuffer enabled;
+	/**
+	 * Index of each genome's first gene
+	 */
+	private IntBuffer genomeOffsets;
+	/**
+	 * Number of genes in each genome
+	 */
+	private IntBuffer genomeSizes;
+	private int numGenomes;
+	/**
+	 * Number of gene slots used, including those of replaced genomes
+	 */
+	private int numGeneSlots;
+
+	// CONSTRUCTORS:
+	/**
+	 * Creates an empty store for genomes of the given Species. The store
+	 * grows as needed; the capacities only size its first allocation.
+	 *
+	 * @param spec
+	 *            Species whose genomes are stored
+	 * @param genomeCapacity
+	 *            expected number of genomes
+	 * @param geneCapacity
+	 *            expected total number of genes
+	 */
+	public GenomeStore(Species spec, int genomeCapacity, int geneCapacity) {
+		species = spec;
+		allocateGenes(Math.max(16, geneCapacity));
+		allocateGenomes(Math.max(16, genomeCapacity));
+		spec.attachStore(this);
+	}
+
+	// PUBLIC METHODS:
+	/**
+	 * Packs a copy of a Brain's genome into the store
+	 *
+	 * @param b
+	 *            a Brain of this store's Species
+	 * @return index of the packed genome, or -1 if the Brain belongs to
+	 *         another Species
+	 */
+	public int add(Brain b) {
+		if (b.getSpecies() != species) {
+			species.reportError("Brain " + b.getID()
+					+ " does not belong to Species " + species.getID() + ".");
+			return -1;
+		}
+		DNA dna = b.dna;
+		int n = dna.numGenes();
+		int first = reserve(n);
+		int k = first;
+		for (Integer i : sortedInnovations(dna)) {
+			Gene g = dna.getGene(i);
+			writeGene(k++, g.innovation, g.start, g.end, g.weight, g.enabled);
+		}
+		return addGenome(first, n);
+	}
+
+	/**
+	 * Unpacks a genome into a new Brain that can be evaluated. The Brain is
+	 * given a new ID but does not join a Tribe. Genes are unpacked in
+	 * innovation order, so a genome with a cycle may have it broken at a
+	 * different connection than the Brain it was packed from.
+	 *
+	 * @param genome
+	 *            index of the genome
+	 * @return the Brain
+	 */
+	public Brain toBrain(int genome) {
+		DNA dna = new DNA();
+		for (NNode n : species.inputs) {
+			dna.submitNewNode(n);
+		}
+		for (NNode n : species.outputs) {
+			dna.submitNewNode(n);
+		}
+		int first = genomeOffsets.get(genome);
+		int end = first + genomeSizes.get(genome);
+		for (int k = first; k < end; k++) {
+			Gene g = new Gene();
+			g.innovation = innovations.get(k);
+			g.start = starts.get(k);
+			g.end = ends.get(k);
+			g.weight = weights.get(k);
+			g.enabled = enabled.get(k) != 0;
+			dna.submitNewConnection(g);
+			if (!dna.hasNodeID(g.start))
+				dna.submitNewNode(species.getNode(g.start));
+			if (!dna.hasNodeID(g.end))
+				dna.submitNewNode(species.getNode(g.end));
+		}
+		return new Brain(species, dna);
+	}
+
+	/**
+	 * Get the number of genomes in the store
+	 *
+	 * @return number of genomes
+	 */
+	public int size() {
+		return numGenomes;
+	}
+
+	/**
+	 * Get the number of genes in a genome
+	 *
+	 * @param genome
+	 *            index of the genome
+	 * @return number of genes
+	 */
+	public int numGenes(int genome) {
+		return genomeSizes.get(genome);
+	}
+
+	/**
+	 * Get the off-heap memory held by the store, including space left by
+	 * replaced genomes until retain is called
+	 *
+	 * @return bytes allocated
+	 */
+	public long getAllocatedBytes() {
+		return (long) innovations.capacity() * GENE_BYTES
+				+ (long) genomeOffsets.capacity() * 8;
+	}
+
+	/**
+	 * The compatibility distance between two genomes, as for Brains of the
+	 * Species
+	 *
+	 * @param a
+	 *            index of one genome
+	 * @param b
+	 *            index of the other genome
+	 * @return compatibility distance
+	 */
+	public double compatibilityDistance(int a, int b) {
+		int i = genomeOffsets.get(a);
+		int endA = i + genomeSizes.get(a);
+		int j = genomeOffsets.get(b);
+		int endB = j + genomeSizes.get(b);
+		int highestA = endA > i ? innovations.get(endA - 1) : -1;
+		int highestB = endB > j ? innovations.get(endB - 1) : -1;
+		int excess = 0;
+		int disjoint = 0;
+		int matching = 0;
+		double weightdif = 0;
+
+		// Merge the two sorted gene ranges
+		while (i < endA || j < endB) {
+			int innA = i < endA ? innovations.get(i) : Integer.MAX_VALUE;
+			int innB = j < endB ? innovations.get(j) : Integer.MAX_VALUE;
+			if (innA == innB) {
+				weightdif += Math.abs(weights.get(i++) - weights.get(j++));
+				matching++;
+			} else if (innA < innB) {
+				if (innA > highestB)
+					excess++;
+				else
+					disjoint++;
+				i++;
+			} else {
+				if (innB > highestA)
+					excess++;
+				else
+					disjoint++;
+				j++;
+			}
+		}
+		int n = Brain.compatibilityNormalizer(genomeSizes.get(a),
+				genomeSizes.get(b));
+		Parameters p = species.params;
+		return p.c1 * excess / n + p.c2 * disjoint / n + p.c3
+				* (matching > 0 ? weightdif / matching : 0.0);
+	}
+
+	/**
+	 * Breeds two genomes into a new one, as for Brains of the Species. Genes
+	 * only the fitter parent has are inherited; genes the less fit parent
+	 * alone has are not.
+	 *
+	 * @param mother
+	 *            index of one parent
+	 * @param motherFitness
+	 *            its fitness
+	 * @param father
+	 *            index of the other parent
+	 * @param fatherFitness
+	 *            its fitness
+	 * @return index of the child genome
+	 */
+	public int crossover(int mother, double motherFitness, int father,
+			double fatherFitness) {
+		int hifit = motherFitness > fatherFitness ? mother : father;
+		int lofit = hifit == mother ? father : mother;
+		Parameters params = species.params;
+		Random r = species.getRandom();
+
+		int hiSize = genomeSizes.get(hifit);
+		int first = reserve(hiSize);
+		int i = genomeOffsets.get(hifit);
+		int endHi = i + hiSize;
+		int j = genomeOffsets.get(lofit);
+		int endLo = j + genomeSizes.get(lofit);
+		int k = first;
+		for (; i < endHi; i++) {
+			int inn = innovations.get(i);
+			while (j < endLo && innovations.get(j) < inn) {
+				j++;
+			}
+			if (j == endLo || innovations.get(j) != inn) {
+				copyGene(i, k++);
+				continue;
+			}
+			int source = Braincraft.randomChance(r,
+					params.inheritFromHigherFitRate) ? i : j;
+			copyGene(source, k);
+			if (enabled.get(i) == 0 || enabled.get(j) == 0)
+				enabled.put(k, (byte) (Braincraft.randomChance(r,
+						params.disabledRate) ? 0 : 1));
+			k++;
+		}
+		return addGenome(first, hiSize);
+	}
+
+	/**
+	 * Gives each gene of a genome a new random weight with the Species'
+	 * perWeightMutationRate. Done in place.
+	 *
+	 * @param genome
+	 *            index of the genome
+	 */
+	public void mutateWeights(int genome) {
+		Random r = species.getRandom();
+		double rate = species.params.perWeightMutationRate;
+		int first = genomeOffsets.get(genome);
+		int end = first + genomeSizes.get(genome);
+		for (int k = first; k < end; k++) {
+			if (Braincraft.randomChance(r, rate))
+				weights.put(k, Braincraft.randomWeight(r));
+		}
+	}
+
+	/**
+	 * Splits a random enabled gene of a genome with a new hidden node. The
+	 * genome is rewritten at the end of the store.
+	 *
+	 * @param genome
+	 *            index of the genome
+	 */
+	public void mutateAddNode(int genome) {
+		int first = genomeOffsets.get(genome);
+		int size = genomeSizes.get(genome);
+		ArrayList<Integer> candidates = new ArrayList<Integer>();
+		for (int k = first; k < first + size; k++) {
+			if (enabled.get(k) != 0)
+				candidates.add(k);
+		}
+		if (candidates.isEmpty())
+			return;
+		int split = candidates.get(Braincraft.randomInteger(
+				species.getRandom(), candidates.size()));
+		enabled.put(split, (byte) 0);
+
+		NNode addition = new NNode(NNode.HIDDEN, species);
+		Gene early = new Gene(starts.get(split), addition.ID, 1, species);
+		Gene late = new Gene(addition.ID, ends.get(split), weights.get(split),
+				species);
+		rewrite(genome, new Gene[] { early, late });
+	}
+
+	/**
+	 * Connects two random unconnected nodes of a genome, unless it is fully
+	 * connected. The genome is rewritten at the end of the store.
+	 *
+	 * @param genome
+	 *            index of the genome
+	 */
+	public void mutateAddLink(int genome) {
+		int first = genomeOffsets.get(genome);
+		int size = genomeSizes.get(genome);
+		HashSet<Long> connected = new HashSet<Long>();
+		HashSet<Integer> nodeSet = new HashSet<Integer>();
+		for (NNode n : species.inputs) {
+			nodeSet.add(n.ID);
+		}
+		for (NNode n : species.outputs) {
+			nodeSet.add(n.ID);
+		}
+		for (int k = first; k < first + size; k++) {
+			nodeSet.add(starts.get(k));
+			nodeSet.add(ends.get(k));
+			connected.add(key(starts.get(k), ends.get(k)));
+		}
+		ArrayList<Integer> nodeIDs = new ArrayList<Integer>(nodeSet);
+		int numEnds = nodeIDs.size() - species.inputs.length;
+		if (size >= (nodeIDs.size() - 1) * numEnds)
+			return;
+
+		Random r = species.getRandom();
+		NNode start;
+		NNode end;
+		do {
+			start = species.getNode(nodeIDs.get(Braincraft.randomInteger(r,
+					nodeIDs.size())));
+			end = species.getNode(nodeIDs.get(Braincraft.randomInteger(r,
+					nodeIDs.size())));
+		} while (end.type == NNode.INPUT || start.equals(end)
+				|| connected.contains(key(start.ID, end.ID)));
+		rewrite(genome, new Gene[] { new Gene(start.ID, end.ID,
+				Braincraft.randomWeight(r), species) });
+	}
+
+	/**
+	 * Keeps only the given genomes, in the given order, and frees the space
+	 * of everything else for reuse. Genome indexes change: the genome listed
+	 * at position i becomes genome i. Genes are compacted within the
+	 * existing buffers, so no more off-heap memory is used than before.
+	 *
+	 * @param genomes
+	 *            indexes of the genomes to keep
+	 */
+	public void retain(int[] genomes) {
+		// Slide the kept genomes down in the order they are stored, so no
+		// gene is overwritten before it has been moved
+		long[] byOffset = new long[genomes.length];
+		for (int i = 0; i < genomes.length; i++) {
+			byOffset[i] = ((long) genomeOffsets.get(genomes[i]) << 32) | i;
+		}
+		Arrays.sort(byOffset);
+		int[] offsets = new int[genomes.length];
+		int[] sizes = new int[genomes.length];
+		int[] firstListing = new int[numGenomes];
+		Arrays.fill(firstListing, -1);
+		ArrayList<Integer> repeats = new ArrayList<Integer>();
+		int slot = 0;
+		for (long entry : byOffset) {
+			int i = (int) entry;
+			int g = genomes[i];
+			sizes[i] = genomeSizes.get(g);
+			if (firstListing[g] != -1) {
+				repeats.add(i);
+				continue;
+			}
+			firstListing[g] = i;
+			int from = genomeOffsets.get(g);
+			for (int k = 0; k < sizes[i]; k++) {
+				copyGene(from + k, slot + k);
+			}
+			offsets[i] = slot;
+			slot += sizes[i];
+		}
+		numGeneSlots = slot;
+
+		// A genome listed twice gets its own copy, so the two can be
+		// mutated separately
+		for (int i : repeats) {
+			int from = offsets[firstListing[genomes[i]]];
+			offsets[i] = reserve(sizes[i]);
+			for (int k = 0; k < sizes[i]; k++) {
+				copyGene(from + k, offsets[i] + k);
+			}
+		}
+		numGenomes = 0;
+		for (int i = 0; i < genomes.length; i++) {
+			addGenome(offsets[i], sizes[i]);
+		}
+	}
+
+	// LIBRARY METHODS:
+	/**
+	 * Adds the innovations and node IDs used by the stored genomes to the
+	 * given sets
+	 *
+	 * @param liveInnovations
+	 *            innovation numbers in use
+	 * @param liveNodes
+	 *            node IDs in use
+	 */
+	protected void collectLive(HashSet<Integer> liveInnovations,
+			HashSet<Integer> liveNodes) {
+		for (int g = 0; g < numGenomes; g++) {
+			int first = genomeOffsets.get(g);
+			int end = first + genomeSizes.get(g);
+			for (int k = first; k < end; k++) {
+				liveInnovations.add(innovations.get(k));
+				liveNodes.add(starts.get(k));
+				liveNodes.add(ends.get(k));
+			}
+		}
+	}
+
+	// HELPER METHODS:
+	/**
+	 * Rewrites a genome at the end of the store with extra genes merged in
+	 * by innovation number
+	 */
+	private void rewrite(int genome, Gene[] added) {
+		Arrays.sort(added, new Comparator<Gene>() {
+			public int compare(Gene x, Gene y) {
+				return Integer.compare(x.innovation, y.innovation);
+			}
+		});
+		int size = genomeSizes.get(genome);
+		int to = reserve(size + added.length);
+		int from = genomeOffsets.get(genome);
+		int end = from + size;
+		int k = to;
+		int a = 0;
+		for (int i = from; i < end; i++) {
+			while (a < added.length && added[a].innovation < innovations.get(i)) {
+				Gene g = added[a++];
+				writeGene(k++, g.innovation, g.start, g.end, g.weight, true);
+			}
+			copyGene(i, k++);
+		}
+		while (a < added.length) {
+			Gene g = added[a++];
+			writeGene(k++, g.innovation, g.start, g.end, g.weight, true);
+		}
+		genomeOffsets.put(genome, to);
+		genomeSizes.put(genome, k - to);
+	}
+
+	private static long key(int start, int end) {
+		return ((long) start << 32) | (end & 0xffffffffL);
+	}
+
+	private static ArrayList<Integer> sortedInnovations(DNA dna) {
+		ArrayList<Integer> ret = new ArrayList<Integer>(dna.getInnovations());
+		Collections.sort(ret);
+		return ret;
+	}
+
+	private void writeGene(int k, int innovation, int start, int end,
+			double weight, boolean on) {
+		innovations.put(k, innovation);
+		starts.put(k, start);
+		ends.put(k, end);
+		weights.put(k, weight);
+		enabled.put(k, (byte) (on ? 1 : 0));
+	}
+
+	private void copyGene(int from, int to) {
+		writeGene(to, innovations.get(from), starts.get(from), ends.get(from),
+				weights.get(from), enabled.get(from) != 0);
+	}
+
+	/**
+	 * Claims room for n genes at the end of the gene columns
+	 *
+	 * @return index of the first claimed gene
+	 */
+	private int reserve(int n) {
+		if (numGeneSlots + n > innovations.capacity()) {
+			long wanted = Math.max((long) numGeneSlots + n,
+					2L * innovations.capacity());
+			if (wanted * 8 > Integer.MAX_VALUE)
+				wanted = Integer.MAX_VALUE / 8;
+			if (numGeneSlots + n > wanted)
+				throw new IllegalStateException(
+						"GenomeStore is full; call retain to reclaim space.");
+			growGenes((int) wanted);
+		}
+		int ret = numGeneSlots;
+		numGeneSlots += n;
+		return ret;
+	}
+
+	private int addGenome(int first, int size) {
+		if (numGenomes == genomeOffsets.capacity()) {
+			IntBuffer offsets = genomeOffsets;
+			IntBuffer sizes = genomeSizes;
+			allocateGenomes(2 * numGenomes);
+			for (int g = 0; g < numGenomes; g++) {
+				genomeOffsets.put(g, offsets.get(g));
+				genomeSizes.put(g, sizes.get(g));
+			}
+		}
+		genomeOffsets.put(numGenomes, first);
+		genomeSizes.put(numGenomes, size);
+		return numGenomes++;
+	}
+
+	private void growGenes(int capacity) {
+		IntBuffer oldInnovations = innovations;
+		IntBuffer oldStarts = starts;
+		IntBuffer oldEnds = ends;
+		DoubleBuffer oldWeights = weights;
+		ByteBuffer oldEnabled = enabled;
+		allocateGenes(capacity);
+		for (int k = 0; k < numGeneSlots; k++) {
+			innovations.put(k, oldInnovations.get(k));
+			starts.put(k, oldStarts.get(k));
+			ends.put(k, oldEnds.get(k));
+			weights.put(k, oldWeights.get(k));
+			enabled.put(k, oldEnabled.get(k));
+		}
+	}
+
+	private void allocateGenes(int capacity) {
+		innovations = direct(capacity * 4).asIntBuffer();
+		starts = direct(capacity * 4).asIntBuffer();
+		ends = direct(capacity * 4).asIntBuffer();
+		weights = direct(capacity * 8).asDoubleBuffer();
+		enabled = direct(capacity);
+	}
+
+	private void allocateGenomes(int capacity) {
+		genomeOffsets = direct(capacity * 4).asIntBuffer();
+		genomeSizes = direct(capacity * 4).asIntBuffer();
+	}
+
+	private static ByteBuffer direct(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+}
@@ -0,0 +1,178 @@
+package braincraft;
+
+import javax.lang.model.SourceVersion;
+
+/**
+ * Writes a Phenotype out as a self-contained Java class with a single static
+ * evaluate(double[] in, double[] out) method. The network is unrolled into
+ * straight-line code with every weight inlined as a literal, so the class
+ * needs nothing from this library and computes exactly what the Phenotype
+ * computes.
+ */
+class JavaSourceWriter {
+	/**
+	 * Most connection terms written into one generated method, keeping each
+	 * method well under the JVM's 64KB bytecode limit
+	 */
+	private static final int TERMS_PER_METHOD = 1500;
+	/**
+	 * Most connection terms written on one line
+	 */
+	private static final int TERMS_PER_LINE = 4;
+
+	// FIELDS:
+	private Phenotype phenotype;
+	private StringBuilder out;
+	private int numParts;
+	private int termsInPart;
+
+	// CONSTRUCTORS:
+	protected JavaSourceWriter(Phenotype p) {
+		phenotype = p;
+	}
+
+	// LIBRARY METHODS:
+	/**
+	 * Returns true if the given name can be used as a (possibly qualified)
+	 * Java class name. Reserved words are not allowed in any part.
+	 *
+	 * @param name
+	 *            the class name
+	 * @return whether the name is valid
+	 */
+	protected static boolean isValidClassName(String name) {
+		return SourceVersion.isName(name);
+	}
+
+	/**
+	 * Generates the source of the class.
+	 *
+	 * @param className
+	 *            class name, optionally qualified with a package
+	 * @param description
+	 *            one line describing where the network came from
+	 * @return Java source code
+	 */
+	protected String write(String className, String description) {
+		Phenotype p = phenotype;
+		int numComputed = p.nodeIDs.length - p.numInputs;
+		String simpleName = className;
+		out = new StringBuilder();
+		int dot = className.lastIndexOf('.');
+		if (dot >= 0) {
+			out.append("package ").append(className.substring(0, dot))
+					.append(";\n\n");
+			simpleName = className.substring(dot + 1);
+		}
+
+		out.append("/**\n * ").append(description).append("\n *\n");
+		out.append(" * Inputs: ").append(p.numInputs).append(", outputs: ")
+				.append(p.numOutputs).append(", nodes: ").append(numComputed)
+				.append(", connections: ").append(p.weights.length)
+				.append(".\n */\n");
+		out.append("public final class ").append(simpleName).append(" {\n");
+		out.append("\tprivate ").append(simpleName).append("() {\n\t}\n\n");
+
+		// Node computations, split into parts of bounded size
+		StringBuilder parts = new StringBuilder();
+		StringBuilder main = out;
+		out = parts;
+		startPart();
+		for (int k = 0; k < numComputed; k++) {
+			int first = p.firstIncoming[k];
+			int last = p.firstIncoming[k + 1];
+			if (first == last) {
+				out.append("\t\tv[").append(k).append("] = 0.0;\n");
+			}
+			// A node's sum is accumulated in v[k] so it may span parts
+			for (int e = first; e < last; e += TERMS_PER_LINE) {
+				if (termsInPart >= TERMS_PER_METHOD) {
+					endPart();
+					startPart();
+				}
+				int end = Math.min(last, e + TERMS_PER_LINE);
+				// Written as v[k] = v[k] + a + b so the additions happen in
+				// the same order as in the Phenotype
+				out.append("\t\tv[").append(k).append("] = ");
+				if (e != first)
+					out.append("v[").append(k).append("] + ");
+				for (int t = e; t < end; t++) {
+					if (t != e)
+						out.append(" + ");
+					out.append(literal(p.weights[t])).append(" * ")
+							.append(value(p.sources[t]));
+				}
+				out.append(";\n");
+				termsInPart += end - e;
+			}
+			out.append("\t\tv[").append(k).append("] = sigmoid(v[").append(k)
+					.append("]);\n");
+		}
+		endPart();
+		out = main;
+
+		// Entry point
+		out.append("\t/**\n\t * Computes the network's outputs.\n\t *\n");
+		out.append("\t * @param in\n\t *            ").append(p.numInputs)
+				.append(" input values\n");
+		out.append("\t * @param out\n\t *            receives the ")
+				.append(p.numOutputs).append(" output values\n\t */\n");
+		out.append("\tpublic static void evaluate(double[] in, double[] out) {\n");
+		out.append("\t\tdouble[] v = new double[").append(Math.max(1, numComputed))
+				.append("];\n");
+		for (int i = 0; i < numParts; i++) {
+			out.append("\t\tpart").append(i).append("(in, v);\n");
+		}
+		for (int i = 0; i < p.numOutputs; i++) {
+			out.append("\t\tout[").append(i).append("] = ")
+					.append(value(p.outputSlots[i])).append(";\n");
+		}
+		out.append("\t}\n\n");
+
+		out.append(parts);
+
+		out.append("\tprivate static double sigmoid(double x) {\n");
+		out.append("\t\treturn 1 / (1 + Math.exp(x * ")
+				.append(literal(p.sigmoidCoefficient)).append("));\n");
+		out.append("\t}\n}\n");
+		return out.toString();
+	}
+
+	// HELPER METHODS:
+	private void startPart() {
+		out.append("\tprivate static void part").append(numParts++)
+				.append("(double[] in, double[] v) {\n");
+		termsInPart = 0;
+	}
+
+	private void endPart() {
+		out.append("\t}\n\n");
+	}
+
+	/**
+	 * The expression reading a value slot
+	 */
+	private String value(int slot) {
+		if (slot < phenotype.numInputs)
+			return "in[" + slot + "]";
+		return "v[" + (slot - phenotype.numInputs) + "]";
+	}
+
+	/**
+	 * A double literal that reads back as exactly the same value. Weights
+	 * that have diverged to NaN or infinity are written as the matching
+	 * Double constant, since Double.toString does not give valid Java for them.
+	 */
+	private static String literal(double d) {
+		if (Double.isNaN(d))
+			return "Double.NaN";
+		if (d == Double.POSITIVE_INFINITY)
+			return "Double.POSITIVE_INFINITY";
+		if (d == Double.NEGATIVE_INFINITY)
+			return "Double.NEGATIVE_INFINITY";
+		String s = Double.toString(d);
+		if (d < 0)
+			return "(" + s + ")";
+		return s;
+	}
+}
@@ -0,0 +1,264 @@
+package braincraft;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A KD-tree of behavior descriptors supporting insertion and k-nearest
+ * neighbour queries under Euclidean distance. Points are inserted as leaves.
+ * When an insertion lands too deep, the smallest lopsided subtree on its path
+ * is rebuilt around medians (as in a scapegoat tree), which keeps the tree
+ * balanced enough that queries stay logarithmic as it grows.
+ */
+class KDTree implements Serializable {
+	// FIELDS:
+	private Node root;
+	private int size;
+	private int dimensions;
+	/**
+	 * Largest share of a subtree that one of its children may hold before
+	 * the subtree counts as lopsided
+	 */
+	private static final double BALANCE = 0.7;
+
+	// CONSTRUCTORS:
+	protected KDTree() {
+		dimensions = -1;
+	}
+
+	// PUBLIC METHODS:
+	/**
+	 * Get the number of points in this tree
+	 *
+	 * @return number of points
+	 */
+	protected int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a point to this tree. All points must have the same dimension.
+	 *
+	 * @param point
+	 *            the point to add
+	 */
+	protected void insert(double[] point) {
+		if (dimensions == -1)
+			dimensions = point.length;
+		if (point.length != dimensions)
+			throw new IllegalArgumentException("Behavior has " + point.length
+					+ " dimensions but earlier behaviors had " + dimensions
+					+ ".");
+		size++;
+		if (root == null) {
+			root = new Node(point, 0);
+			return;
+		}
+
+		// Walk down to the new leaf, counting it in every subtree it joins
+		ArrayList<Node> path = new ArrayList<Node>();
+		Node n = root;
+		while (n != null) {
+			n.count++;
+			path.add(n);
+			n = point[n.axis] < n.point[n.axis] ? n.left : n.right;
+		}
+		Node parent = path.get(path.size() - 1);
+		Node leaf = new Node(point, (parent.axis + 1) % dimensions);
+		if (point[parent.axis] < parent.point[parent.axis])
+			parent.left = leaf;
+		else
+			parent.right = leaf;
+
+		// Too deep: rebuild the lowest ancestor that one child dominates
+		if (path.size() <= Math.log(size) / Math.log(1 / BALANCE) + 1)
+			return;
+		Node child = leaf;
+		for (int i = path.size() - 1; i >= 0; i--) {
+			Node ancestor = path.get(i);
+			if (child.count > BALANCE * ancestor.count) {
+				ArrayList<double[]> points = new ArrayList<double[]>(
+						ancestor.count);
+				collect(ancestor, points);
+				Node rebuilt = build(points.toArray(new double[points.size()][]),
+						0, points.size(), ancestor.axis);
+				if (i == 0)
+					root = rebuilt;
+				else if (path.get(i - 1).left == ancestor)
+					path.get(i - 1).left = rebuilt;
+				else
+					path.get(i - 1).right = rebuilt;
+				return;
+			}
+			child = ancestor;
+		}
+	}
+
+	/**
+	 * Offers every point of this tree that could be among the nearest
+	 * neighbours of the query to the given heap.
+	 *
+	 * @param query
+	 *            the point to find neighbours of
+	 * @param nearest
+	 *            heap collecting the nearest distances found so far
+	 */
+	protected void nearest(double[] query, Neighbours nearest) {
+		search(root, query, nearest);
+	}
+
+	// HELPER METHODS:
+	private void search(Node n, double[] query, Neighbours nearest) {
+		if (n == null)
+			return;
+		nearest.offer(distance(query, n.point));
+		double diff = query[n.axis] - n.point[n.axis];
+		Node near = diff < 0 ? n.left : n.right;
+		Node far = diff < 0 ? n.right : n.left;
+		search(near, query, nearest);
+		// The far side can only hold closer points if the splitting plane
+		// is closer than the current k-th nearest distance
+		if (Math.abs(diff) < nearest.worst())
+			search(far, query, nearest);
+	}
+
+	private Node build(double[][] points, int from, int to, final int axis) {
+		if (from >= to)
+			return null;
+		Arrays.sort(points, from, to, new Comparator<double[]>() {
+			public int compare(double[] a, double[] b) {
+				return Double.compare(a[axis], b[axis]);
+			}
+		});
+		// Points equal to the median on this axis may land on either side;
+		// search only relies on left <= median <= right
+		int median = (from + to) / 2;
+		Node n = new Node(points[median], axis);
+		int next = (axis + 1) % dimensions;
+		n.left = build(points, from, median, next);
+		n.right = build(points, median + 1, to, next);
+		n.count = to - from;
+		return n;
+	}
+
+	private static void collect(Node n, ArrayList<double[]> points) {
+		if (n == null)
+			return;
+		points.add(n.point);
+		collect(n.left, points);
+		collect(n.right, points);
+	}
+
+	/**
+	 * Euclidean distance between two behaviors
+	 */
+	protected static double distance(double[] a, double[] b) {
+		double sum = 0.0;
+		for (int i = 0; i < a.length; i++) {
+			double d = a[i] - b[i];
+			sum += d * d;
+		}
+		return Math.sqrt(sum);
+	}
+
+	/**
+	 * A point in the tree, the axis it splits on and the size of its subtree
+	 */
+	private static class Node implements Serializable {
+		double[] point;
+		int axis;
+		int count;
+		Node left;
+		Node right;
+
+		Node(double[] p, int a) {
+			point = p;
+			axis = a;
+			count = 1;
+		}
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * A bounded max-heap holding the k smallest distances offered to it
+	 */
+	protected static class Neighbours {
+		private double[] heap;
+		private int count;
+
+		protected Neighbours(int k) {
+			heap = new double[k];
+		}
+
+		/**
+		 * Keeps the distance if it is among the k smallest seen so far
+		 */
+		protected void offer(double d) {
+			if (heap.length == 0)
+				return;
+			if (count < heap.length) {
+				int i = count++;
+				heap[i] = d;
+				while (i > 0 && heap[(i - 1) / 2] < heap[i]) {
+					swap(i, (i - 1) / 2);
+					i = (i - 1) / 2;
+				}
+			} else if (d < heap[0]) {
+				heap[0] = d;
+				int i = 0;
+				while (true) {
+					int largest = i;
+					int l = 2 * i + 1;
+					int r = l + 1;
+					if (l < count && heap[l] > heap[largest])
+						largest = l;
+					if (r < count && heap[r] > heap[largest])
+						largest = r;
+					if (largest == i)
+						break;
+					swap(i, largest);
+					i = largest;
+				}
+			}
+		}
+
+		/**
+		 * The k-th smallest distance so far, or infinity if fewer than k
+		 * distances have been offered. A heap that keeps no distances has
+		 * nothing to look for, so its bound is 0.
+		 */
+		protected double worst() {
+			if (heap.length == 0)
+				return 0.0;
+			if (count < heap.length)
+				return Double.POSITIVE_INFINITY;
+			return heap[0];
+		}
+
+		protected int count() {
+			return count;
+		}
+
+		protected double sum() {
+			double sum = 0.0;
+			for (int i = 0; i < count; i++) {
+				sum += heap[i];
+			}
+			return sum;
+		}
+
+		private void swap(int i, int j) {
+			double t = heap[i];
+			heap[i] = heap[j];
+			heap[j] = t;
+		}
+	}
+
+	/**
+	 * Version ID for serialization
+	 */
+	private static final long serialVersionUID = 1L;
+}
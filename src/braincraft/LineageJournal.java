@@ -0,0 +1,233 @@
+package braincraft;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+/**
+ * Writes the lineage of a Species to an append-only binary journal that
+ * LineageReader can replay. Each offspring is recorded as a delta against
+ * whichever parent it differs from least: the nodes and genes it gained or
+ * lost, and the genes whose weight or enabled flag changed through
+ * crossover or mutation. A Brain is written out in full (a keyframe) when it
+ * has no journaled parent or when its chain of deltas back to a keyframe
+ * would grow longer than KEYFRAME_INTERVAL, which bounds the cost of
+ * replaying any genome.
+ *
+ * The file starts with a header of ints: MAGIC, VERSION, Species ID, number
+ * of inputs and number of outputs. Records follow, each starting with a
+ * record type byte, the Brain's ID and its generation.
+ */
+class LineageJournal {
+	protected static final int MAGIC = 0x42724c6a;
+	protected static final int VERSION = 1;
+	protected static final byte KEYFRAME = 1;
+	protected static final byte DELTA = 2;
+	/**
+	 * Longest chain of deltas between a recorded genome and a keyframe
+	 */
+	protected static final int KEYFRAME_INTERVAL = 16;
+
+	// FIELDS:
+	private DataOutputStream out;
+	/**
+	 * Number of deltas between each journaled living Brain and its nearest
+	 * keyframe. Brains drop out once they are garbage.
+	 */
+	private WeakHashMap<Brain, Integer> depths;
+
+	// CONSTRUCTORS:
+	/**
+	 * Creates a journal file for a Species, replacing any file already there
+	 *
+	 * @param file
+	 *            location of the journal
+	 * @param spec
+	 *            the Species whose lineage is recorded
+	 * @throws IOException
+	 */
+	protected LineageJournal(String file, Species spec) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		depths = new WeakHashMap<Brain, Integer>();
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(spec.getID());
+		out.writeInt(spec.inputs.length);
+		out.writeInt(spec.outputs.length);
+	}
+
+	// LIBRARY METHODS:
+	/**
+	 * Writes a Brain's whole genome
+	 *
+	 * @param b
+	 *            the Brain
+	 * @param generation
+	 *            generation the Brain was born in
+	 * @throws IOException
+	 */
+	protected synchronized void keyframe(Brain b, int generation) throws IOException {
+		DNA dna = b.dna;
+		out.writeByte(KEYFRAME);
+		out.writeInt(b.getID());
+		out.writeInt(generation);
+		out.writeInt(dna.numNodes());
+		for (NNode n : dna.getNodes()) {
+			out.writeInt(n.ID);
+			out.writeByte(n.type);
+		}
+		out.writeInt(dna.numGenes());
+		for (Integer i : dna.getInnovations()) {
+			writeGene(dna.getGene(i));
+		}
+		depths.put(b, 0);
+	}
+
+	/**
+	 * Writes a newborn Brain as a delta against one of its parents, or as a
+	 * keyframe if neither parent can serve as a base
+	 *
+	 * @param child
+	 *            the newborn Brain, after all of its mutations
+	 * @param mother
+	 *            one parent
+	 * @param father
+	 *            other parent, possibly the same Brain as mother
+	 * @param generation
+	 *            generation the child was born in
+	 * @throws IOException
+	 */
+	protected synchronized void birth(Brain child, Brain mother, Brain father,
+			int generation) throws IOException {
+		Delta best = null;
+		Brain base = null;
+		for (Brain parent : new Brain[] { mother, father }) {
+			Integer depth = depths.get(parent);
+			if (depth == null || depth >= KEYFRAME_INTERVAL)
+				continue;
+			Delta d = new Delta(parent.dna, child.dna);
+			if (best == null || d.size() < best.size()) {
+				best = d;
+				base = parent;
+			}
+		}
+		if (best == null) {
+			keyframe(child, generation);
+			return;
+		}
+		Brain other = base == mother ? father : mother;
+
+		out.writeByte(DELTA);
+		out.writeInt(child.getID());
+		out.writeInt(generation);
+		out.writeInt(base.getID());
+		out.writeInt(other.getID());
+		out.writeInt(best.addedNodes.size());
+		for (NNode n : best.addedNodes) {
+			out.writeInt(n.ID);
+			out.writeByte(n.type);
+		}
+		writeInts(best.removedNodes);
+		out.writeInt(best.changedGenes.size());
+		for (Gene g : best.changedGenes) {
+			out.writeInt(g.innovation);
+			out.writeDouble(g.weight);
+			out.writeBoolean(g.enabled);
+		}
+		out.writeInt(best.addedGenes.size());
+		for (Gene g : best.addedGenes) {
+			writeGene(g);
+		}
+		writeInts(best.removedGenes);
+		depths.put(child, depths.get(base) + 1);
+	}
+
+	/**
+	 * Stops using a Brain as a base for deltas. Must be called when a Brain's
+	 * genome changes after it was recorded, as its offspring would otherwise
+	 * be recorded against a genome the journal does not hold. Its offspring
+	 * are then recorded against their other parent or as keyframes.
+	 *
+	 * @param b
+	 *            the changed Brain
+	 */
+	protected synchronized void forget(Brain b) {
+		depths.remove(b);
+	}
+
+	/**
+	 * Pushes everything written so far to the file
+	 *
+	 * @throws IOException
+	 */
+	protected void flush() throws IOException {
+		out.flush();
+	}
+
+	protected void close() throws IOException {
+		out.close();
+	}
+
+	// HELPER METHODS:
+	private void writeGene(Gene g) throws IOException {
+		out.writeInt(g.innovation);
+		out.writeInt(g.start);
+		out.writeInt(g.end);
+		out.writeDouble(g.weight);
+		out.writeBoolean(g.enabled);
+	}
+
+	private void writeInts(ArrayList<Integer> values) throws IOException {
+		out.writeInt(values.size());
+		for (int v : values) {
+			out.writeInt(v);
+		}
+	}
+
+	/**
+	 * The differences between a child's genome and a parent's
+	 */
+	private static class Delta {
+		private ArrayList<NNode> addedNodes = new ArrayList<NNode>();
+		private ArrayList<Integer> removedNodes = new ArrayList<Integer>();
+		private ArrayList<Gene> changedGenes = new ArrayList<Gene>();
+		private ArrayList<Gene> addedGenes = new ArrayList<Gene>();
+		private ArrayList<Integer> removedGenes = new ArrayList<Integer>();
+
+		private Delta(DNA base, DNA child) {
+			HashMap<Integer, NNode> baseNodes = new HashMap<Integer, NNode>();
+			for (NNode n : base.getNodes()) {
+				baseNodes.put(n.ID, n);
+			}
+			for (NNode n : child.getNodes()) {
+				if (baseNodes.remove(n.ID) == null)
+					addedNodes.add(n);
+			}
+			removedNodes.addAll(baseNodes.keySet());
+
+			for (Integer i : child.getInnovations()) {
+				Gene g = child.getGene(i);
+				Gene b = base.getGene(i);
+				if (b == null)
+					addedGenes.add(g);
+				else if (b.weight != g.weight || b.enabled != g.enabled)
+					changedGenes.add(g);
+			}
+			for (Integer i : base.getInnovations()) {
+				if (!child.has(i))
+					removedGenes.add(i);
+			}
+		}
+
+		private int size() {
+			return addedNodes.size() + removedNodes.size()
+					+ changedGenes.size() + addedGenes.size()
+					+ removedGenes.size();
+		}
+	}
+}
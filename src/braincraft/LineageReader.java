@@ -0,0 +1,391 @@
+package braincraft;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * Reads a lineage journal written with Species.startJournal. Opening a
+ * journal indexes where each Brain's record is. Any recorded genome can then
+ * be rebuilt by replaying deltas forward from the nearest keyframe.
+ */
+public class LineageReader {
+	// FIELDS:
+	private RandomAccessFile file;
+	private int speciesID;
+	private int numInputs;
+	private int numOutputs;
+	/**
+	 * File offset of each Brain's record
+	 */
+	private HashMap<Integer, Long> offsets;
+
+	// CONSTRUCTORS:
+	private LineageReader() {
+		offsets = new HashMap<Integer, Long>();
+	}
+
+	// PUBLIC METHODS:
+	/**
+	 * Opens and indexes a lineage journal. A record cut short at the end of
+	 * the file, as left by a run that was killed, is ignored.
+	 *
+	 * @param file
+	 *            location of the journal
+	 * @return the reader, or null if the file is not a lineage journal or
+	 *         could not be read
+	 */
+	public static LineageReader open(String file) {
+		LineageReader ret = new LineageReader();
+		try {
+			CountingInputStream counter = new CountingInputStream(
+					new BufferedInputStream(new FileInputStream(file)));
+			DataInputStream in = new DataInputStream(counter);
+			try {
+				if (in.readInt() != LineageJournal.MAGIC
+						|| in.readInt() != LineageJournal.VERSION)
+					return null;
+				ret.speciesID = in.readInt();
+				ret.numInputs = in.readInt();
+				ret.numOutputs = in.readInt();
+				while (true) {
+					long offset = counter.count;
+					Record r;
+					try {
+						r = readRecord(in);
+					} catch (EOFException e) {
+						break;
+					}
+					ret.offsets.put(r.id, offset);
+				}
+			} finally {
+				in.close();
+			}
+			ret.file = new RandomAccessFile(file, "r");
+		} catch (IOException e) {
+			return null;
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the ID of the Species whose lineage this is
+	 *
+	 * @return Species ID
+	 */
+	public int getSpeciesID() {
+		return speciesID;
+	}
+
+	public int getNumInputs() {
+		return numInputs;
+	}
+
+	public int getNumOutputs() {
+		return numOutputs;
+	}
+
+	/**
+	 * Get the number of Brains recorded in the journal
+	 *
+	 * @return number of Brains
+	 */
+	public int getNumBrains() {
+		return offsets.size();
+	}
+
+	/**
+	 * Returns true if the journal has a record of the given Brain
+	 *
+	 * @param brainID
+	 *            ID of the Brain
+	 * @return whether the Brain is recorded
+	 */
+	public boolean has(int brainID) {
+		return offsets.containsKey(brainID);
+	}
+
+	/**
+	 * Get the IDs of a Brain's parents. The first is the parent its record
+	 * is a delta against.
+	 *
+	 * @param brainID
+	 *            ID of the Brain
+	 * @return the two parent IDs (the same ID twice for a Brain bred from one
+	 *         parent), no IDs for a Brain recorded in full, or null if the
+	 *         Brain is not recorded or the journal could not be read
+	 */
+	public int[] getParents(int brainID) {
+		Record r = read(brainID);
+		if (r == null)
+			return null;
+		if (r.type == LineageJournal.KEYFRAME)
+			return new int[0];
+		return new int[] { r.base, r.other };
+	}
+
+	/**
+	 * Get the generation a Brain was born in
+	 *
+	 * @param brainID
+	 *            ID of the Brain
+	 * @return generation, or -1 if the Brain is not recorded or the journal
+	 *         could not be read
+	 */
+	public int getGeneration(int brainID) {
+		Record r = read(brainID);
+		if (r == null)
+			return -1;
+		return r.generation;
+	}
+
+	/**
+	 * Rebuilds the genome a Brain had when it was born
+	 *
+	 * @param brainID
+	 *            ID of the Brain
+	 * @return the genome, or null if the Brain is not recorded or the journal
+	 *         could not be read
+	 */
+	public Genome getGenome(int brainID) {
+		// Walk back to the nearest keyframe, then replay forwards
+		ArrayList<Record> chain = new ArrayList<Record>();
+		Record r = read(brainID);
+		while (r != null && r.type == LineageJournal.DELTA) {
+			chain.add(r);
+			r = read(r.base);
+		}
+		if (r == null)
+			return null;
+
+		TreeMap<Integer, Integer> nodes = new TreeMap<Integer, Integer>();
+		TreeMap<Integer, Gene> genes = new TreeMap<Integer, Gene>();
+		apply(r, nodes, genes);
+		Collections.reverse(chain);
+		for (Record d : chain) {
+			apply(d, nodes, genes);
+		}
+		return new Genome(nodes, genes);
+	}
+
+	/**
+	 * Closes the journal file
+	 */
+	public void close() {
+		try {
+			file.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * A genome rebuilt from a journal, with nodes sorted by ID and genes by
+	 * innovation number
+	 */
+	public static class Genome {
+		public final int[] nodeIDs;
+		/**
+		 * 1 for input, 2 for output and 3 for hidden nodes
+		 */
+		public final int[] nodeTypes;
+		public final int[] innovations;
+		public final int[] starts;
+		public final int[] ends;
+		public final double[] weights;
+		public final boolean[] enabled;
+
+		private Genome(TreeMap<Integer, Integer> nodes,
+				TreeMap<Integer, Gene> genes) {
+			nodeIDs = new int[nodes.size()];
+			nodeTypes = new int[nodes.size()];
+			int i = 0;
+			for (Integer id : nodes.keySet()) {
+				nodeIDs[i] = id;
+				nodeTypes[i++] = nodes.get(id);
+			}
+			innovations = new int[genes.size()];
+			starts = new int[genes.size()];
+			ends = new int[genes.size()];
+			weights = new double[genes.size()];
+			enabled = new boolean[genes.size()];
+			i = 0;
+			for (Gene g : genes.values()) {
+				innovations[i] = g.innovation;
+				starts[i] = g.start;
+				ends[i] = g.end;
+				weights[i] = g.weight;
+				enabled[i++] = g.enabled;
+			}
+		}
+	}
+
+	// HELPER METHODS:
+	private synchronized Record read(int brainID) {
+		Long offset = offsets.get(brainID);
+		if (offset == null)
+			return null;
+		try {
+			file.seek(offset);
+			// Not closed, as closing it would close the file
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					Channels.newInputStream(file.getChannel())));
+			return readRecord(in);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static Record readRecord(DataInputStream in) throws IOException {
+		Record r = new Record();
+		r.type = in.readByte();
+		r.id = in.readInt();
+		r.generation = in.readInt();
+		if (r.type == LineageJournal.KEYFRAME) {
+			readNodes(in, r);
+			r.genes = new Gene[in.readInt()];
+			for (int i = 0; i < r.genes.length; i++) {
+				r.genes[i] = readGene(in);
+			}
+			return r;
+		}
+		if (r.type != LineageJournal.DELTA)
+			throw new IOException("Unknown record type " + r.type + ".");
+		r.base = in.readInt();
+		r.other = in.readInt();
+		readNodes(in, r);
+		r.removedNodes = readInts(in);
+		r.changedGenes = new Gene[in.readInt()];
+		for (int i = 0; i < r.changedGenes.length; i++) {
+			Gene g = new Gene();
+			g.innovation = in.readInt();
+			g.weight = in.readDouble();
+			g.enabled = in.readBoolean();
+			r.changedGenes[i] = g;
+		}
+		r.genes = new Gene[in.readInt()];
+		for (int i = 0; i < r.genes.length; i++) {
+			r.genes[i] = readGene(in);
+		}
+		r.removedGenes = readInts(in);
+		return r;
+	}
+
+	private static void readNodes(DataInputStream in, Record r)
+			throws IOException {
+		int n = in.readInt();
+		r.nodeIDs = new int[n];
+		r.nodeTypes = new int[n];
+		for (int i = 0; i < n; i++) {
+			r.nodeIDs[i] = in.readInt();
+			r.nodeTypes[i] = in.readByte();
+		}
+	}
+
+	private static Gene readGene(DataInputStream in) throws IOException {
+		Gene g = new Gene();
+		g.innovation = in.readInt();
+		g.start = in.readInt();
+		g.end = in.readInt();
+		g.weight = in.readDouble();
+		g.enabled = in.readBoolean();
+		return g;
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int[] ret = new int[in.readInt()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = in.readInt();
+		}
+		return ret;
+	}
+
+	/**
+	 * Applies a keyframe or delta to a genome being rebuilt
+	 */
+	private static void apply(Record r, TreeMap<Integer, Integer> nodes,
+			TreeMap<Integer, Gene> genes) {
+		for (int i = 0; i < r.nodeIDs.length; i++) {
+			nodes.put(r.nodeIDs[i], r.nodeTypes[i]);
+		}
+		for (Gene g : r.genes) {
+			genes.put(g.innovation, new Gene(g));
+		}
+		if (r.type == LineageJournal.KEYFRAME)
+			return;
+		for (int id : r.removedNodes) {
+			nodes.remove(id);
+		}
+		for (Gene c : r.changedGenes) {
+			Gene g = genes.get(c.innovation);
+			g.weight = c.weight;
+			g.enabled = c.enabled;
+		}
+		for (int innovation : r.removedGenes) {
+			genes.remove(innovation);
+		}
+	}
+
+	/**
+	 * One keyframe or delta record
+	 */
+	private static class Record {
+		private byte type;
+		private int id;
+		private int generation;
+		private int base;
+		private int other;
+		/**
+		 * Nodes of a keyframe, or nodes added by a delta
+		 */
+		private int[] nodeIDs;
+		private int[] nodeTypes;
+		private int[] removedNodes;
+		private Gene[] changedGenes;
+		/**
+		 * Genes of a keyframe, or genes added by a delta
+		 */
+		private Gene[] genes;
+		private int[] removedGenes;
+	}
+
+	/**
+	 * Keeps track of how many bytes have been read through it
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count;
+
+		private CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				count++;
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
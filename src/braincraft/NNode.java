@@ -9,18 +9,11 @@ public class NNode implements Serializable
 	protected static final int HIDDEN = 3;
 	protected int ID;
 	protected int type;
-	protected Double activation;
-	protected boolean activated;
 
 	protected NNode(int typeNum, Species spec)
 	{
 		type = typeNum;
 		ID = spec.getNewNodeID(this);
-		activated = false;
-		if (typeNum == NNode.INPUT)
-		{
-			activated = true;
-		}
 	}
 
 	protected boolean equals(NNode n)
@@ -0,0 +1,18 @@
+package braincraft;
+
+/**
+ * @author Chris
+ * 
+ *         Exception object thrown when the network is passed an invalid number
+ *         of inputs.
+ */
+class NetworkInputException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	public NetworkInputException() {
+	}
+
+	public NetworkInputException(String msg) {
+		super(msg);
+	}
+}
@@ -0,0 +1,327 @@
+package braincraft;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+
+/**
+ * The NEAT parameters of a Braincraft library or of a single Species. A
+ * Parameters object never changes once built, so experiments running side by
+ * side in one JVM cannot disturb each other's settings. Start from
+ * Parameters.Builder, which holds the defaults, and change what you need:
+ *
+ * <pre>
+ * Parameters.Builder b = new Parameters.Builder();
+ * b.compThresh = 2.0;
+ * Braincraft lib = new Braincraft(b.build());
+ * </pre>
+ */
+public final class Parameters implements Serializable {
+	// NEAT PARAMETERS:
+	/**
+	 * Coefficient of x in sigmoid(x)
+	 */
+	public final double sigmoidCoefficient;
+	/**
+	 * Weight of excess genes in the compatibility distance
+	 */
+	public final double c1;
+	/**
+	 * Weight of disjoint genes in the compatibility distance
+	 */
+	public final double c2;
+	/**
+	 * Weight of the average weight difference of matching genes in the
+	 * compatibility distance
+	 */
+	public final double c3;
+	/**
+	 * Brains closer than this compatibility distance belong to the same Tribe
+	 * and share their fitness. When targetTribes is set this is the starting
+	 * threshold.
+	 */
+	public final double compThresh;
+	/**
+	 * The default population size if not specified
+	 */
+	public final int defaultPopulationSize;
+	/**
+	 * Percentage of each tribe that does not get to reproduce at each
+	 * generation
+	 */
+	public final double percentageOfTribeToKillBeforeReproduction;
+	/**
+	 * Chance that an individual weight will be mutated in a network weight
+	 * mutation.
+	 */
+	public final double perWeightMutationRate;
+	/**
+	 * Chance of a neural network having its weights mutated.
+	 */
+	public final double weightMutationRate;
+	/**
+	 * Chance of a neural network having a connection mutation
+	 */
+	public final double linkMutationRate;
+	/**
+	 * Chance of a neural network having a node added
+	 */
+	public final double nodeMutationRate;
+	/**
+	 * Chance that a gene will be disabled in the offspring given that one of
+	 * its parents has that gene disabled.
+	 */
+	public final double disabledRate;
+	/**
+	 * Chance that offspring will inherit a given gene from the parent with
+	 * higher fitness.
+	 */
+	public final double inheritFromHigherFitRate;
+	/**
+	 * Number of generations a gene may stay disabled before it is removed
+	 * from its DNA. 0 keeps disabled genes forever.
+	 */
+	public final int disabledGeneLifetime;
+	/**
+	 * Number of generations between prunings of each Species' innovation and
+	 * node registries. 0 never prunes.
+	 */
+	public final int registryPruneInterval;
+	/**
+	 * Number of threads each Species uses to breed and mutate a new
+	 * generation. 1 breeds on the calling thread.
+	 */
+	public final int reproductionThreads;
+	/**
+	 * Weight of novelty in the score used for selection, from 0 (fitness
+	 * only) to 1 (novelty only). Novelty is the mean distance between
+	 * behaviors reported with Brain.reportBehavior, so it must be on a scale
+	 * comparable to fitness when the two are mixed. Every Brain must still
+	 * call Brain.reportFitness to end its evaluation; with a weight of 1 the
+	 * reported value is ignored, so pure novelty search reports 0.
+	 */
+	public final double noveltyWeight;
+	/**
+	 * Number of nearest behaviors averaged to measure novelty
+	 */
+	public final int noveltyNeighbours;
+	/**
+	 * Chance that an evaluated behavior is added to the novelty archive
+	 */
+	public final double noveltyArchiveRate;
+	/**
+	 * Epochs of backpropagation each Brain is tuned with before it is
+	 * evaluated, by experiments that support it. The tuned weights are kept
+	 * in its DNA and inherited. 0 turns tuning off.
+	 */
+	public final int tuningEpochs;
+	/**
+	 * Learning rate of the backpropagation used for tuning
+	 */
+	public final double tuningLearningRate;
+	/**
+	 * Number of rows each Brain is tuned on
+	 */
+	public final int tuningRows;
+	/**
+	 * Number of input vectors whose outputs each Brain remembers, so that
+	 * evaluate skips the network for inputs seen recently. Worth turning on
+	 * when inputs repeat, as with discrete states. 0 turns caching off.
+	 */
+	public final int evaluationCacheSize;
+	/**
+	 * Whether Brains evaluate in single precision. This halves the memory of
+	 * network weights and activations and the bandwidth spent reading them.
+	 * Genomes, breeding and FrozenBrain stay in double precision.
+	 */
+	public final boolean singlePrecision;
+	/**
+	 * Number of each tribe's best Brains that survive unchanged into the next
+	 * generation, keeping their fitness without being evaluated again. A
+	 * tribe always breeds at least one offspring, so a tribe granted n
+	 * offspring keeps at most n - 1 elites.
+	 */
+	public final int elitesPerTribe;
+	/**
+	 * Number of all-time best Brains each Species keeps in its hall of fame
+	 */
+	public final int hallOfFameSize;
+	/**
+	 * Number of generations a Tribe may go without raising its best fitness
+	 * before it is culled and its share of the offspring goes to the other
+	 * Tribes. The Tribe holding the Species' best Brain is never culled. 0
+	 * never culls.
+	 */
+	public final int stagnationLimit;
+	/**
+	 * Number of Tribes each Species tries to keep. After every generation the
+	 * compatibility threshold is raised by compThreshStep if there are more
+	 * Tribes than this, and lowered by it, down to minCompThresh, if there
+	 * are fewer. 0 keeps compThresh fixed.
+	 */
+	public final int targetTribes;
+	/**
+	 * Amount the compatibility threshold moves each generation when it is
+	 * adapted to targetTribes
+	 */
+	public final double compThreshStep;
+	/**
+	 * Lowest compatibility threshold that adapting to targetTribes may reach
+	 */
+	public final double minCompThresh;
+
+	// CONSTRUCTORS:
+	private Parameters(Builder b) {
+		sigmoidCoefficient = b.sigmoidCoefficient;
+		c1 = b.c1;
+		c2 = b.c2;
+		c3 = b.c3;
+		compThresh = b.compThresh;
+		defaultPopulationSize = b.defaultPopulationSize;
+		percentageOfTribeToKillBeforeReproduction = b.percentageOfTribeToKillBeforeReproduction;
+		perWeightMutationRate = b.perWeightMutationRate;
+		weightMutationRate = b.weightMutationRate;
+		linkMutationRate = b.linkMutationRate;
+		nodeMutationRate = b.nodeMutationRate;
+		disabledRate = b.disabledRate;
+		inheritFromHigherFitRate = b.inheritFromHigherFitRate;
+		disabledGeneLifetime = b.disabledGeneLifetime;
+		registryPruneInterval = b.registryPruneInterval;
+		reproductionThreads = b.reproductionThreads;
+		noveltyWeight = b.noveltyWeight;
+		noveltyNeighbours = b.noveltyNeighbours;
+		noveltyArchiveRate = b.noveltyArchiveRate;
+		tuningEpochs = b.tuningEpochs;
+		tuningLearningRate = b.tuningLearningRate;
+		tuningRows = b.tuningRows;
+		evaluationCacheSize = b.evaluationCacheSize;
+		singlePrecision = b.singlePrecision;
+		elitesPerTribe = b.elitesPerTribe;
+		hallOfFameSize = b.hallOfFameSize;
+		stagnationLimit = b.stagnationLimit;
+		targetTribes = b.targetTribes;
+		compThreshStep = b.compThreshStep;
+		minCompThresh = b.minCompThresh;
+	}
+
+	// PUBLIC METHODS:
+	/**
+	 * Returns a Builder holding these parameters, for making a variation of
+	 * them
+	 *
+	 * @return a new Builder
+	 */
+	public Builder toBuilder() {
+		Builder b = new Builder();
+		b.sigmoidCoefficient = sigmoidCoefficient;
+		b.c1 = c1;
+		b.c2 = c2;
+		b.c3 = c3;
+		b.compThresh = compThresh;
+		b.defaultPopulationSize = defaultPopulationSize;
+		b.percentageOfTribeToKillBeforeReproduction = percentageOfTribeToKillBeforeReproduction;
+		b.perWeightMutationRate = perWeightMutationRate;
+		b.weightMutationRate = weightMutationRate;
+		b.linkMutationRate = linkMutationRate;
+		b.nodeMutationRate = nodeMutationRate;
+		b.disabledRate = disabledRate;
+		b.inheritFromHigherFitRate = inheritFromHigherFitRate;
+		b.disabledGeneLifetime = disabledGeneLifetime;
+		b.registryPruneInterval = registryPruneInterval;
+		b.reproductionThreads = reproductionThreads;
+		b.noveltyWeight = noveltyWeight;
+		b.noveltyNeighbours = noveltyNeighbours;
+		b.noveltyArchiveRate = noveltyArchiveRate;
+		b.tuningEpochs = tuningEpochs;
+		b.tuningLearningRate = tuningLearningRate;
+		b.tuningRows = tuningRows;
+		b.evaluationCacheSize = evaluationCacheSize;
+		b.singlePrecision = singlePrecision;
+		b.elitesPerTribe = elitesPerTribe;
+		b.hallOfFameSize = hallOfFameSize;
+		b.stagnationLimit = stagnationLimit;
+		b.targetTribes = targetTribes;
+		b.compThreshStep = compThreshStep;
+		b.minCompThresh = minCompThresh;
+		return b;
+	}
+
+	/**
+	 * A mutable set of parameters, starting out at the library's defaults.
+	 * See Parameters for what each one means.
+	 */
+	public static class Builder {
+		public double sigmoidCoefficient = -4.9;
+		public double c1 = 1.0;
+		public double c2 = 1.0;
+		public double c3 = 0.4;
+		public double compThresh = 3.0;
+		public int defaultPopulationSize = 150;
+		public double percentageOfTribeToKillBeforeReproduction = 0.5;
+		public double perWeightMutationRate = 0.1;
+		public double weightMutationRate = 0.8;
+		public double linkMutationRate = 0.3;
+		public double nodeMutationRate = 0.18;
+		public double disabledRate = 0.75;
+		public double inheritFromHigherFitRate = 0.8;
+		public int disabledGeneLifetime = 0;
+		public int registryPruneInterval = 10;
+		public int reproductionThreads = Runtime.getRuntime()
+				.availableProcessors();
+		public double noveltyWeight = 0.0;
+		public int noveltyNeighbours = 15;
+		public double noveltyArchiveRate = 0.02;
+		public int tuningEpochs = 0;
+		public double tuningLearningRate = 0.5;
+		public int tuningRows = 256;
+		public int evaluationCacheSize = 0;
+		public boolean singlePrecision = false;
+		public int elitesPerTribe = 0;
+		public int hallOfFameSize = 10;
+		public int stagnationLimit = 0;
+		public int targetTribes = 0;
+		public double compThreshStep = 0.3;
+		public double minCompThresh = 2.0;
+
+		/**
+		 * Sets a parameter by name. Integer parameters are rounded, and
+		 * boolean parameters are true for any value but 0.
+		 *
+		 * @param name
+		 *            name of the parameter, as spelled in this class
+		 * @param value
+		 *            new value
+		 * @return false if there is no parameter of that name
+		 */
+		public boolean set(String name, double value) {
+			try {
+				Field f = Builder.class.getField(name);
+				if (f.getType() == int.class)
+					f.setInt(this, (int) Math.round(value));
+				else if (f.getType() == boolean.class)
+					f.setBoolean(this, value != 0);
+				else
+					f.setDouble(this, value);
+				return true;
+			} catch (NoSuchFieldException e) {
+				return false;
+			} catch (IllegalAccessException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Returns the parameters as they are now. Later changes to this
+		 * Builder do not affect the result.
+		 *
+		 * @return immutable parameters
+		 */
+		public Parameters build() {
+			return new Parameters(this);
+		}
+	}
+
+	/**
+	 * Version ID for serialization
+	 */
+	private static final long serialVersionUID = 1L;
+}
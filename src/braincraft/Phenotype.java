@@ -0,0 +1,320 @@
+package braincraft;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * A Phenotype is a flattened, evaluation-ready view of a Brain's DNA. Only
+ * enabled genes are expressed, and only nodes that feed an output through
+ * them are given a value slot: inputs take the first slots, and the remaining
+ * nodes follow in topological order so a single forward pass computes the
+ * whole network. Incoming connections are stored as primitive arrays indexed
+ * by slot. Recurrent connections (ones that would close a cycle) contribute
+ * nothing to a forward pass.
+ */
+class Phenotype implements Serializable {
+	/**
+	 * Number of rows evaluated together by the batched kernel. Sized so the
+	 * value block of a moderately large network stays in cache.
+	 */
+	protected static final int BATCH_BLOCK = 64;
+
+	// FIELDS:
+	protected int numInputs;
+	protected int numOutputs;
+	/**
+	 * Node ID held in each value slot
+	 */
+	protected int[] nodeIDs;
+	/**
+	 * Value slot of each output node, in Species output order
+	 */
+	protected int[] outputSlots;
+	/**
+	 * Offset into sources and weights of the first incoming connection of
+	 * each computed slot. Has one extra trailing entry. Connections from
+	 * inputs come before connections from computed slots.
+	 */
+	protected int[] firstIncoming;
+	/**
+	 * Offset into sources and weights of the first incoming connection of
+	 * each computed slot that does not come from an input
+	 */
+	protected int[] firstComputedIncoming;
+	/**
+	 * Offset into outgoingTargets and outgoingWeights of the first outgoing
+	 * connection of each input. Has one extra trailing entry.
+	 */
+	protected int[] firstOutgoing;
+	/**
+	 * Computed slot (counted from the first computed slot) that each
+	 * outgoing input connection feeds
+	 */
+	protected int[] outgoingTargets;
+	/**
+	 * Weight of each outgoing input connection
+	 */
+	protected double[] outgoingWeights;
+	/**
+	 * Value slot that each incoming connection reads from
+	 */
+	protected int[] sources;
+	/**
+	 * Weight of each incoming connection
+	 */
+	protected double[] weights;
+	/**
+	 * Coefficient of x in the sigmoid of every computed node
+	 */
+	protected double sigmoidCoefficient;
+
+	// CONSTRUCTORS:
+	/**
+	 * Builds the Phenotype for a DNA belonging to the given Species.
+	 *
+	 * @param dna
+	 *            the genome to flatten
+	 * @param spec
+	 *            Species the genome belongs to
+	 */
+	protected Phenotype(DNA dna, Species spec) {
+		numInputs = spec.inputs.length;
+		numOutputs = spec.outputs.length;
+		sigmoidCoefficient = spec.params.sigmoidCoefficient;
+
+		HashMap<Integer, Integer> slots = new HashMap<Integer, Integer>();
+		ArrayList<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < numInputs; i++) {
+			slots.put(spec.inputs[i].ID, i);
+			order.add(spec.inputs[i].ID);
+		}
+		HashSet<Integer> visiting = new HashSet<Integer>();
+		for (NNode n : spec.outputs) {
+			assignSlots(n.ID, dna, slots, order, visiting);
+		}
+
+		int numSlots = order.size();
+		nodeIDs = new int[numSlots];
+		for (int i = 0; i < numSlots; i++) {
+			nodeIDs[i] = order.get(i);
+		}
+		outputSlots = new int[numOutputs];
+		for (int i = 0; i < numOutputs; i++) {
+			outputSlots[i] = slots.get(spec.outputs[i].ID);
+		}
+
+		// Gather incoming connections of each computed slot, dropping the
+		// ones that read from a slot that is not yet computed
+		int numComputed = numSlots - numInputs;
+		firstIncoming = new int[numComputed + 1];
+		firstComputedIncoming = new int[numComputed];
+		ArrayList<Gene> kept = new ArrayList<Gene>();
+		for (int k = 0; k < numComputed; k++) {
+			int slot = numInputs + k;
+			firstIncoming[k] = kept.size();
+			ArrayList<Gene> fromComputed = new ArrayList<Gene>();
+			for (Gene g : dna.getIncomingGenes(nodeIDs[slot])) {
+				Integer source = slots.get(g.start);
+				if (!g.enabled || source == null || source >= slot)
+					continue;
+				if (source < numInputs)
+					kept.add(g);
+				else
+					fromComputed.add(g);
+			}
+			firstComputedIncoming[k] = kept.size();
+			kept.addAll(fromComputed);
+		}
+		firstIncoming[numComputed] = kept.size();
+		sources = new int[kept.size()];
+		weights = new double[kept.size()];
+		for (int e = 0; e < kept.size(); e++) {
+			Gene g = kept.get(e);
+			sources[e] = slots.get(g.start);
+			weights[e] = g.weight;
+		}
+
+		// Index the same input connections by input, for sparse inputs
+		firstOutgoing = new int[numInputs + 1];
+		ArrayList<Gene> leaving = new ArrayList<Gene>();
+		for (int i = 0; i < numInputs; i++) {
+			firstOutgoing[i] = leaving.size();
+			for (Gene g : dna.getOutgoingGenes(nodeIDs[i])) {
+				if (g.enabled && slots.containsKey(g.end))
+					leaving.add(g);
+			}
+		}
+		firstOutgoing[numInputs] = leaving.size();
+		outgoingTargets = new int[leaving.size()];
+		outgoingWeights = new double[leaving.size()];
+		for (int e = 0; e < leaving.size(); e++) {
+			Gene g = leaving.get(e);
+			outgoingTargets[e] = slots.get(g.end) - numInputs;
+			outgoingWeights[e] = g.weight;
+		}
+	}
+
+	// EVALUATION METHODS:
+	/**
+	 * Computes the outputs for a single input vector.
+	 *
+	 * @param inputs
+	 *            input values, one per Species input
+	 * @return output values, one per Species output
+	 */
+	protected double[] evaluate(double[] inputs) {
+		double coefficient = sigmoidCoefficient;
+		double[] values = new double[nodeIDs.length];
+		System.arraycopy(inputs, 0, values, 0, numInputs);
+		for (int slot = numInputs; slot < values.length; slot++) {
+			int k = slot - numInputs;
+			double sum = 0.0;
+			for (int e = firstIncoming[k]; e < firstIncoming[k + 1]; e++) {
+				sum += weights[e] * values[sources[e]];
+			}
+			values[slot] = sigmoid(sum, coefficient);
+		}
+		double[] ret = new double[numOutputs];
+		for (int i = 0; i < numOutputs; i++) {
+			ret[i] = values[outputSlots[i]];
+		}
+		return ret;
+	}
+
+	/**
+	 * Computes the outputs for an input vector given only by its non-zero
+	 * entries. Only the connections leaving those inputs are visited, so the
+	 * cost does not depend on the total number of inputs. Repeated indexes
+	 * add up.
+	 *
+	 * @param indexes
+	 *            indexes of the non-zero inputs
+	 * @param inputs
+	 *            values of the non-zero inputs
+	 * @return output values, one per Species output
+	 */
+	protected double[] evaluateSparse(int[] indexes, double[] inputs) {
+		double coefficient = sigmoidCoefficient;
+		int numComputed = nodeIDs.length - numInputs;
+		double[] values = new double[numComputed];
+
+		// Scatter the active inputs into the sums of the nodes they feed
+		for (int a = 0; a < indexes.length; a++) {
+			int i = indexes[a];
+			double x = inputs[a];
+			for (int e = firstOutgoing[i]; e < firstOutgoing[i + 1]; e++) {
+				values[outgoingTargets[e]] += outgoingWeights[e] * x;
+			}
+		}
+
+		// Finish each sum with the connections between computed slots
+		for (int k = 0; k < numComputed; k++) {
+			double sum = values[k];
+			for (int e = firstComputedIncoming[k]; e < firstIncoming[k + 1]; e++) {
+				sum += weights[e] * values[sources[e] - numInputs];
+			}
+			values[k] = sigmoid(sum, coefficient);
+		}
+		double[] ret = new double[numOutputs];
+		for (int i = 0; i < numOutputs; i++) {
+			ret[i] = values[outputSlots[i] - numInputs];
+		}
+		return ret;
+	}
+
+	/**
+	 * Computes the outputs for many independent input vectors. Rows are
+	 * processed in blocks laid out as a structure of arrays (all rows of one
+	 * slot are contiguous), so each connection is applied across a whole
+	 * block in one tight loop that the JIT can vectorize.
+	 *
+	 * @param inputs
+	 *            input rows, each with one value per Species input
+	 * @return output rows, each with one value per Species output
+	 */
+	protected double[][] evaluateBatch(double[][] inputs) {
+		double coefficient = sigmoidCoefficient;
+		double[][] ret = new double[inputs.length][numOutputs];
+		double[] values = new double[nodeIDs.length * BATCH_BLOCK];
+		for (int first = 0; first < inputs.length; first += BATCH_BLOCK) {
+			int rows = Math.min(BATCH_BLOCK, inputs.length - first);
+
+			// Transpose the input rows into their slots
+			for (int r = 0; r < rows; r++) {
+				double[] row = inputs[first + r];
+				for (int i = 0; i < numInputs; i++) {
+					values[i * BATCH_BLOCK + r] = row[i];
+				}
+			}
+
+			// Weighted sums, one connection at a time across the block
+			for (int slot = numInputs; slot < nodeIDs.length; slot++) {
+				int k = slot - numInputs;
+				int dst = slot * BATCH_BLOCK;
+				for (int r = 0; r < rows; r++) {
+					values[dst + r] = 0.0;
+				}
+				for (int e = firstIncoming[k]; e < firstIncoming[k + 1]; e++) {
+					double w = weights[e];
+					int src = sources[e] * BATCH_BLOCK;
+					for (int r = 0; r < rows; r++) {
+						values[dst + r] += w * values[src + r];
+					}
+				}
+				for (int r = 0; r < rows; r++) {
+					values[dst + r] = sigmoid(values[dst + r], coefficient);
+				}
+			}
+
+			// Transpose the outputs back into rows
+			for (int i = 0; i < numOutputs; i++) {
+				int src = outputSlots[i] * BATCH_BLOCK;
+				for (int r = 0; r < rows; r++) {
+					ret[first + r][i] = values[src + r];
+				}
+			}
+		}
+		return ret;
+	}
+
+	// HELPER METHODS:
+	/**
+	 * The network's activation function.
+	 *
+	 * @param sum
+	 *            weighted sum of a node's inputs
+	 * @param coefficient
+	 *            coefficient of x in sigmoid(x)
+	 * @return activation of the node
+	 */
+	protected static double sigmoid(double sum, double coefficient) {
+		return 1 / (1 + Math.exp(sum * coefficient));
+	}
+
+	/**
+	 * Gives each node that the given node depends on a value slot, then gives
+	 * the node its own. Nodes already on the current path are skipped, which
+	 * is what turns recurrent connections into back edges.
+	 */
+	private static void assignSlots(int nodeID, DNA dna,
+			HashMap<Integer, Integer> slots, ArrayList<Integer> order,
+			HashSet<Integer> visiting) {
+		if (slots.containsKey(nodeID) || visiting.contains(nodeID))
+			return;
+		visiting.add(nodeID);
+		for (Gene g : dna.getIncomingGenes(nodeID)) {
+			if (g.enabled)
+				assignSlots(g.start, dna, slots, order, visiting);
+		}
+		visiting.remove(nodeID);
+		slots.put(nodeID, order.size());
+		order.add(nodeID);
+	}
+
+	/**
+	 * Version ID for serialization
+	 */
+	private static final long serialVersionUID = 1L;
+}
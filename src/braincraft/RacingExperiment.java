@@ -0,0 +1,259 @@
+package braincraft;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * A ThoughtExperiment whose evaluation is made of many episodes (or data
+ * rows) that can be scored separately. Such an experiment can evaluate each
+ * generation as a race, giving most of its episodes only to the Brains that
+ * do well on the first few.
+ */
+public abstract class RacingExperiment extends ThoughtExperiment
+{
+	/**
+	 * Number of episodes in a full evaluation when racing. 0 turns racing off.
+	 */
+	long raceEpisodes;
+	/**
+	 * Number of episodes every Brain gets in the first round of a race
+	 */
+	long raceFirstEpisodes;
+	/**
+	 * Fraction of the remaining Brains eliminated after each round of a race
+	 */
+	double raceEliminationRate;
+
+	RacingExperiment()
+	{
+		super();
+	}
+
+	/**
+	 * Constructor for an experiment whose Species evolve under the given
+	 * parameters.
+	 *
+	 * @param params
+	 *            parameters of the experiment's library
+	 */
+	RacingExperiment(Parameters params)
+	{
+		super(params);
+	}
+
+	/**
+	 * Makes think evaluate each generation as a race (successive halving).
+	 * Every Brain is scored on a few episodes, the worst are eliminated, and
+	 * the survivors are scored on more episodes, until the remaining Brains
+	 * have had every episode.
+	 *
+	 * @param totalEpisodes
+	 *            number of episodes (or data rows) in a full evaluation, or
+	 *            0 to stop racing
+	 * @param firstEpisodes
+	 *            number of episodes every Brain is scored on, at least 1
+	 * @param eliminationRate
+	 *            fraction of the remaining Brains eliminated each round,
+	 *            above 0 and below 1; the survivors' episode count grows by
+	 *            1 / (1 - eliminationRate)
+	 * @return 1 if successful, -1 if the settings are invalid
+	 */
+	int setRacing(long totalEpisodes, long firstEpisodes, double eliminationRate)
+	{
+		if (totalEpisodes < 0 || firstEpisodes < 1)
+		{
+			lib.reportError("A race needs at least one episode in its first round.");
+			return -1;
+		}
+		if (!(eliminationRate > 0 && eliminationRate < 1))
+		{
+			lib.reportError("A race's elimination rate must be above 0 and below 1.");
+			return -1;
+		}
+		raceEpisodes = totalEpisodes;
+		raceFirstEpisodes = firstEpisodes;
+		raceEliminationRate = eliminationRate;
+		return 1;
+	}
+
+	/**
+	 * Scores a Brain on a range of episodes without reporting its fitness.
+	 * The same episode index must mean the same episode for every Brain so
+	 * their partial scores are comparable.
+	 *
+	 * @param b
+	 *            the Brain to score
+	 * @param first
+	 *            index of the first episode
+	 * @param count
+	 *            number of episodes
+	 * @return the Brain's summed score over those episodes
+	 */
+	abstract double evaluateEpisodes(Brain b, long first, long count);
+
+	/**
+	 * Turns a summed score over some number of episodes into a fitness.
+	 *
+	 * @param sum
+	 *            summed score, as returned by evaluateEpisodes
+	 * @param count
+	 *            number of episodes summed
+	 * @return fitness, higher being better
+	 */
+	double episodeFitness(double sum, long count)
+	{
+		return sum / count;
+	}
+
+	void evaluateGeneration(ArrayList<Brain> brains)
+	{
+		if (raceEpisodes > 0)
+			race(brains);
+		else
+			super.evaluateGeneration(brains);
+	}
+
+	void think(double threshold)
+	{
+		if (raceEpisodes == 0)
+		{
+			super.think(threshold);
+			return;
+		}
+		Brain best;
+		do
+		{
+			best = race(spec.getBrains());
+		}
+		while (best == null || best.getFitness() <= threshold);
+		champ = best;
+	}
+
+	/**
+	 * Evaluates a whole generation as a race and reports every Brain's
+	 * fitness. A Brain eliminated in some round is never given a higher
+	 * fitness than any Brain that outlasted it, so selection sees the same
+	 * ranking the race produced.
+	 *
+	 * @param brains
+	 *            the generation to evaluate
+	 * @return the Brain with the highest fitness among those that finished
+	 *         the race
+	 */
+	Brain race(ArrayList<Brain> brains)
+	{
+		final int n = brains.size();
+		final double[] sums = new double[n];
+		final long[] counts = new long[n];
+		final double[] fitness = new double[n];
+		boolean[] penalized = new boolean[n];
+		ArrayList<ArrayList<Integer>> eliminated = new ArrayList<ArrayList<Integer>>();
+		ArrayList<Integer> remaining = new ArrayList<Integer>();
+		for (int i = 0; i < n; i++)
+		{
+			remaining.add(i);
+		}
+
+		// Every Brain starts at the same, randomly chosen episode so that
+		// no fixed subset of episodes decides every race
+		long offset = (long) (spec.getRandom().nextDouble() * raceEpisodes);
+		long spent = 0;
+		long target = Math.max(1, raceFirstEpisodes);
+		while (true)
+		{
+			target = Math.min(target, raceEpisodes);
+			ArrayList<Integer> survivors = new ArrayList<Integer>();
+			for (int i : remaining)
+			{
+				Brain b = brains.get(i);
+				b.startBudget(budget);
+				try
+				{
+					if (counts[i] == 0)
+						tune(b);
+					sums[i] += runEpisodes(b, offset + counts[i], target - counts[i]);
+					spent += target - counts[i];
+					counts[i] = target;
+					fitness[i] = episodeFitness(sums[i], counts[i]);
+					survivors.add(i);
+				}
+				catch (BudgetExceededException e)
+				{
+					numCutOff++;
+					spec.report(e.getMessage());
+					penalized[i] = true;
+					fitness[i] = budget.penaltyFitness;
+				}
+				finally
+				{
+					b.startBudget(null);
+				}
+			}
+			remaining = survivors;
+			if (target == raceEpisodes || remaining.size() <= 1)
+				break;
+
+			// Eliminate the worst of this round
+			Collections.sort(remaining, new Comparator<Integer>()
+			{
+				public int compare(Integer a, Integer b)
+				{
+					return Double.compare(fitness[b], fitness[a]);
+				}
+			});
+			int keep = (int) Math.ceil(remaining.size() * (1 - raceEliminationRate));
+			keep = Math.max(1, Math.min(keep, remaining.size()));
+			eliminated.add(new ArrayList<Integer>(remaining.subList(keep, remaining.size())));
+			remaining = new ArrayList<Integer>(remaining.subList(0, keep));
+			target = (long) Math.ceil(target / (1 - raceEliminationRate));
+		}
+
+		// Cap each round's eliminated Brains below everything that outlasted
+		// them, working back from the finishers
+		double floor = Double.POSITIVE_INFINITY;
+		Brain best = null;
+		for (int i : remaining)
+		{
+			floor = Math.min(floor, fitness[i]);
+			if (best == null || fitness[i] > best.fitness)
+				best = brains.get(i);
+			brains.get(i).reportFitness(fitness[i]);
+		}
+		for (int r = eliminated.size() - 1; r >= 0; r--)
+		{
+			double roundFloor = floor;
+			for (int i : eliminated.get(r))
+			{
+				fitness[i] = Math.min(fitness[i], floor);
+				roundFloor = Math.min(roundFloor, fitness[i]);
+				brains.get(i).reportFitness(fitness[i]);
+			}
+			floor = roundFloor;
+		}
+		for (int i = 0; i < n; i++)
+		{
+			if (penalized[i])
+				brains.get(i).reportFitness(fitness[i]);
+		}
+		spec.report("Race used " + spent + " of " + (n * raceEpisodes)
+				+ " episodes.");
+		return best;
+	}
+
+	/**
+	 * Scores a Brain on count episodes starting at first, wrapping around
+	 * past the last episode
+	 */
+	private double runEpisodes(Brain b, long first, long count)
+	{
+		if (count <= 0)
+			return 0.0;
+		first %= raceEpisodes;
+		long untilEnd = Math.min(count, raceEpisodes - first);
+		double sum = evaluateEpisodes(b, first, untilEnd);
+		if (untilEnd < count)
+			sum += evaluateEpisodes(b, 0, count - untilEnd);
+		return sum;
+	}
+}
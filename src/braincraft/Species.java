@@ -1,9 +1,25 @@
 package braincraft;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
 import java.util.Stack;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Chris
@@ -14,7 +30,28 @@ import java.util.Stack;
  *         themselves.
  */
 public class Species implements Serializable {
+	/**
+	 * Stagnant tribes are not culled below this many tribes
+	 */
+	private static final int MIN_TRIBES = 2;
+	/**
+	 * Seconds an idle reproduction thread waits for work before it exits
+	 */
+	private static final long WORKER_KEEP_ALIVE = 30;
+
 	// FIELDS:
+	/**
+	 * Library this Species reports to. Not saved with the Species.
+	 */
+	private transient Braincraft lib;
+	/**
+	 * Parameters this Species evolves under
+	 */
+	protected final Parameters params;
+	/**
+	 * This Species' own random number generator
+	 */
+	private final Random rng;
 	/**
 	 * ID of this species
 	 */
@@ -32,28 +69,89 @@ public class Species implements Serializable {
 	 */
 	private ArrayList<Tribe> tribes;
 	/**
-	 * Keeps track of the Brains in this Species
+	 * Compatibility threshold in use. Starts at compThresh and is adapted
+	 * each generation when targetTribes is set.
 	 */
-	private ArrayList<Brain> brains;
+	protected double compThresh;
 	/**
-	 * Keeps track of the Genes in this Species
+	 * Compatibility threshold after each bred generation, oldest first
 	 */
-	private ArrayList<Gene> innovations;
+	private ArrayList<Double> compThreshHistory;
 	/**
-	 * Keeps track of the Nodes in this species
+	 * Number of Tribes ever founded in this Species
 	 */
-	private ArrayList<NNode> nodes;
+	private int numTribesFounded;
+	/**
+	 * Number of Brains ever created in this Species
+	 */
+	private int numBrains;
+	/**
+	 * Maps the (start, end) key of every registered connection to its
+	 * innovation number
+	 */
+	private ConcurrentHashMap<Long, Integer> innovations;
+	/**
+	 * The innovation number that the next new connection will get. Never
+	 * decreases, even when registered connections are pruned.
+	 */
+	private int nextInnovation;
+	/**
+	 * Keeps track of the Nodes in this species by ID
+	 */
+	private ConcurrentHashMap<Integer, NNode> nodes;
+	/**
+	 * The ID that the next new node will get
+	 */
+	private int nextNodeID;
 	protected NNode[] inputs;
 	protected NNode[] outputs;
 	/**
 	 * A stack of unevaluated brains to return to the user
 	 */
 	private Stack<Brain> unevaluated;
+	/**
+	 * The best Brains this Species has ever evaluated, best first
+	 */
+	private ArrayList<Brain> hallOfFame;
+	/**
+	 * Threads used to breed new generations
+	 */
+	private transient ExecutorService workers;
+	/**
+	 * Archive of past behaviors used in novelty search
+	 */
+	private KDTree archive;
+	/**
+	 * Index over Tribe representatives used to speciate new Brains. Rebuilt
+	 * whenever the representatives change.
+	 */
+	private transient TribeIndex tribeIndex;
+	/**
+	 * Journal recording the lineage of this Species, if one is open
+	 */
+	private transient LineageJournal journal;
+	/**
+	 * Publisher of this Species' Brains, made on first request
+	 */
+	private transient BrainPublisher publisher;
+	/**
+	 * Genome stores packing genomes of this Species, whose innovations and
+	 * nodes must survive registry pruning. Held weakly.
+	 */
+	private transient Set<GenomeStore> stores;
 
 	// CONSTRUCTORS:
 	/**
 	 * Constructor for a new Species object.
 	 * 
+	 * @param library
+	 *            the library this Species reports to
+	 * @param parameters
+	 *            parameters this Species evolves under
+	 * @param random
+	 *            random number generator for this Species alone
+	 * @param popSize
+	 *            the number of members of the species
 	 * @param numInputs
 	 *            the number of inputs for a species
 	 * @param numOutputs
@@ -61,15 +159,23 @@ public class Species implements Serializable {
 	 * @param speciesID
 	 *            the ID of
 	 */
-	protected Species(int popSize, int numInputs, int numOutputs, int id) {
+	protected Species(Braincraft library, Parameters parameters,
+			Random random, int popSize, int numInputs, int numOutputs, int id) {
+		lib = library;
+		params = parameters;
+		rng = random;
+		ID = id;
+		compThresh = params.compThresh;
+		compThreshHistory = new ArrayList<Double>();
 		inputs = new NNode[numInputs];
 		outputs = new NNode[numOutputs];
 
 		tribes = new ArrayList<Tribe>();
-		innovations = new ArrayList<Gene>();
-		nodes = new ArrayList<NNode>();
-		brains = new ArrayList<Brain>();
+		innovations = new ConcurrentHashMap<Long, Integer>();
+		nodes = new ConcurrentHashMap<Integer, NNode>();
 		unevaluated = new Stack<Brain>();
+		hallOfFame = new ArrayList<Brain>();
+		archive = new KDTree();
 
 		for (int i = 0; i < numInputs; i++) {
 			inputs[i] = new NNode(NNode.INPUT, this);
@@ -82,11 +188,10 @@ public class Species implements Serializable {
 			unevaluated.push(new Brain(this));
 		}
 
-		ID = id;
 		populationSize = popSize;
 		numGenerations = 0;
 
-		Braincraft.report("Species " + ID + " has been created with "
+		report("Species " + ID + " has been created with "
 				+ numInputs + " inputs, " + numOutputs
 				+ " outputs, and a population size of " + popSize + ".");
 	}
@@ -106,6 +211,97 @@ public class Species implements Serializable {
 		return unevaluated.pop();
 	}
 
+	/**
+	 * Hands out every Brain of the current generation that has not been
+	 * handed out yet, starting a new generation first if there are none. For
+	 * evaluation schemes that need to compare a whole generation at once.
+	 * 
+	 * @return the unevaluated Brains
+	 */
+	public ArrayList<Brain> getBrains() {
+		if (unevaluated.size() == 0)
+			newGeneration();
+		ArrayList<Brain> ret = new ArrayList<Brain>(unevaluated);
+		unevaluated.clear();
+		return ret;
+	}
+
+	/**
+	 * Get the reactive publisher of this Species' Brains. Each Species has
+	 * one publisher, which waits for the fitness of every Brain it hands out
+	 * before breeding the next generation.
+	 * 
+	 * @return the publisher
+	 */
+	public synchronized BrainPublisher getPublisher() {
+		if (publisher == null)
+			publisher = new BrainPublisher(this);
+		return publisher;
+	}
+
+	/**
+	 * Get the best Brains this Species has evaluated so far, at most
+	 * hallOfFameSize of them. Updated each time a generation is bred.
+	 * 
+	 * @return Brains in order of decreasing fitness
+	 */
+	public synchronized ArrayList<Brain> getHallOfFame() {
+		return new ArrayList<Brain>(hallOfFame);
+	}
+
+	/**
+	 * Get the compatibility threshold that new Brains are speciated with.
+	 * 
+	 * @return current compatibility threshold
+	 */
+	public synchronized double getCompatibilityThreshold() {
+		return compThresh;
+	}
+
+	/**
+	 * Get the compatibility threshold after each generation bred so far,
+	 * oldest first. Constant unless targetTribes is set.
+	 * 
+	 * @return threshold of each generation
+	 */
+	public synchronized double[] getCompatibilityThresholdHistory() {
+		double[] ret = new double[compThreshHistory.size()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = compThreshHistory.get(i);
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the best fitness history of every current Tribe: the best selection
+	 * fitness of its members after each generation since it was founded,
+	 * oldest first, with NaN for generations it had no members. Tribes that
+	 * were culled or folded into another are no longer included.
+	 * 
+	 * @return history of each Tribe, by Tribe ID
+	 */
+	public synchronized HashMap<Integer, double[]> getTribeFitnessHistories() {
+		HashMap<Integer, double[]> ret = new HashMap<Integer, double[]>();
+		for (Tribe t : tribes) {
+			ret.put(t.ID, t.getBestFitnessHistory());
+		}
+		return ret;
+	}
+
+	/**
+	 * Get the number of Tribes that currently have members.
+	 * 
+	 * @return number of non-empty Tribes
+	 */
+	public synchronized int getNumTribes() {
+		int ret = 0;
+		for (Tribe t : tribes) {
+			if (t.brains.size() > 0)
+				ret++;
+		}
+		return ret;
+	}
+
 	/**
 	 * Get the ID for this Species object.
 	 * 
@@ -115,7 +311,127 @@ public class Species implements Serializable {
 		return ID;
 	}
 
+	/**
+	 * Get the parameters this Species evolves under.
+	 * 
+	 * @return parameters
+	 */
+	public Parameters getParameters() {
+		return params;
+	}
+
+	/**
+	 * Get the number of behaviors in this Species' novelty archive.
+	 * 
+	 * @return size of the novelty archive
+	 */
+	public int getArchiveSize() {
+		return archive.size();
+	}
+
+	/**
+	 * Get the number of connections currently held in this Species'
+	 * innovation registry.
+	 * 
+	 * @return number of registered innovations
+	 */
+	public int getInnovationRegistrySize() {
+		return innovations.size();
+	}
+
+	/**
+	 * Get the number of nodes currently held in this Species' node registry.
+	 * 
+	 * @return number of registered nodes
+	 */
+	public int getNodeRegistrySize() {
+		return nodes.size();
+	}
+
+	/**
+	 * Get the number of innovation numbers ever handed out by this Species,
+	 * including those that have since been pruned from the registry.
+	 * 
+	 * @return number of innovations ever made
+	 */
+	public int getNumInnovations() {
+		return nextInnovation;
+	}
+
+	/**
+	 * Starts recording the lineage of this Species to an append-only journal
+	 * that LineageReader can replay. Every living Brain is written in full,
+	 * then each offspring is written as a delta against one of its parents.
+	 * The file is replaced if it exists.
+	 * 
+	 * @param file
+	 *            location of the journal
+	 * @return 1 if successful, -1 if unsuccessful
+	 */
+	public int startJournal(String file) {
+		stopJournal();
+		try {
+			journal = new LineageJournal(file, this);
+			for (Brain b : getLivingBrains()) {
+				journal.keyframe(b, numGenerations);
+			}
+			journal.flush();
+		} catch (IOException e) {
+			reportError("Could not write lineage journal to location " + file
+					+ ".");
+			journal = null;
+			return -1;
+		}
+		return 1;
+	}
+
+	/**
+	 * Releases the threads this Species breeds with and closes its lineage
+	 * journal, if one is open. Idle threads also exit on their own, so this
+	 * is only needed to release them at once. The Species stays usable and
+	 * starts new threads the next time it breeds.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			if (workers != null) {
+				workers.shutdown();
+				workers = null;
+			}
+		}
+		stopJournal();
+	}
+
+	/**
+	 * Stops recording lineage and closes the journal, if one is open
+	 */
+	public void stopJournal() {
+		if (journal == null)
+			return;
+		try {
+			journal.close();
+		} catch (IOException e) {
+			reportError("Could not close lineage journal.");
+		}
+		journal = null;
+	}
+
 	// LIBRARY METHODS:
+	/**
+	 * Takes the next unevaluated Brain, if there is one
+	 * 
+	 * @param breed
+	 *            whether to breed a new generation when none are left
+	 * @return Brain, or null if none are left and breed is false
+	 */
+	protected Brain pollBrain(boolean breed) {
+		if (unevaluated.size() == 0) {
+			if (!breed)
+				return null;
+			newGeneration();
+		}
+		return unevaluated.pop();
+	}
+
 	/**
 	 * Called by Gene's constructor.
 	 * 
@@ -123,15 +439,15 @@ public class Species implements Serializable {
 	 *            gene to get innovation for
 	 * @return innovation number
 	 */
-	protected int getInnovation(Gene g) {
-		for (Gene inno : innovations) {
-			if (g.equals(inno)) {
-				return inno.innovation;
-			}
+	protected synchronized int getInnovation(Gene g) {
+		Long key = connectionKey(g.start, g.end);
+		Integer known = innovations.get(key);
+		if (known != null) {
+			return known;
 		}
-		int ret = innovations.size();
-		innovations.add(g);
-		Braincraft.report("SPECIES " + ID + ": Innovation " + ret + " was just made!");
+		int ret = nextInnovation++;
+		innovations.put(key, ret);
+		report("SPECIES " + ID + ": Innovation " + ret + " was just made!");
 		return ret;
 	}
 
@@ -142,10 +458,10 @@ public class Species implements Serializable {
 	 *            new node
 	 * @return int
 	 */
-	protected int getNewNodeID(NNode n) {
-		int ret = nodes.size();
-		nodes.add(n);
-		Braincraft.report("SPECIES " + ID + ": Node " + ret + " was just made!");
+	protected synchronized int getNewNodeID(NNode n) {
+		int ret = nextNodeID++;
+		nodes.put(ret, n);
+		report("SPECIES " + ID + ": Node " + ret + " was just made!");
 		return ret;
 	}
 
@@ -156,10 +472,9 @@ public class Species implements Serializable {
 	 *            new brain
 	 * @return int
 	 */
-	protected int getNewBrainID(Brain b) {
-		int ret = brains.size();
-		brains.add(b);
-		Braincraft.report("SPECIES " + ID + ": Brain " + ret + " was just made!");
+	protected synchronized int getNewBrainID(Brain b) {
+		int ret = numBrains++;
+		report("SPECIES " + ID + ": Brain " + ret + " was just made!");
 		return ret;
 	}
 
@@ -171,14 +486,50 @@ public class Species implements Serializable {
 	 * @return int
 	 */
 	protected int getNewTribeID(Tribe t) {
-		int ret = tribes.size();
+		int ret = numTribesFounded++;
 		tribes.add(t);
-		Braincraft.report("SPECIES " + ID + ": Tribe " + ret + " was just made!");
+		report("SPECIES " + ID + ": Tribe " + ret + " was just made!");
 		return ret;
 	}
 
 	/**
-	 * Get an NNode from its ID
+	 * Gets the random number generator in use on the current thread
+	 * 
+	 * @return the thread's own generator if one is set, otherwise this
+	 *         Species' generator
+	 */
+	protected Random getRandom() {
+		Random r = Braincraft.getThreadRandom();
+		if (r == null)
+			return rng;
+		return r;
+	}
+
+	/**
+	 * Adds a string to the log of this Species' library, if it has one
+	 * 
+	 * @param message
+	 *            message to add to the log
+	 */
+	protected void report(String message) {
+		if (lib != null)
+			lib.report(message);
+	}
+
+	/**
+	 * Adds a string to the error log of this Species' library, if it has one
+	 * 
+	 * @param message
+	 *            error to report
+	 */
+	protected void reportError(String message) {
+		if (lib != null)
+			lib.reportError(message);
+	}
+
+	/**
+	 * Get an NNode from its ID. Safe to call while other threads register
+	 * new nodes.
 	 * 
 	 * @param id
 	 * @return NNode with given id
@@ -202,25 +553,132 @@ public class Species implements Serializable {
 
 	/**
 	 * Takes a Brain object and finds and returns a suitable Tribe. Same
-	 * algorithm as the Sorting Hat from Harry Potter.
+	 * algorithm as the Sorting Hat from Harry Potter. The Brain joins a Tribe
+	 * whose representative it is compatible with, or founds a new Tribe.
+	 * Representatives are searched through the tribe index so most
+	 * incompatible ones are never compared with the Brain.
 	 * 
 	 * @param b
 	 *            the Brain to find a Tribe for
 	 * @return Tribe the tribe that this brain belongs to
 	 */
 	protected Tribe getTribe(Brain b) {
-		Collections.shuffle(tribes);
-		for (Tribe tri : tribes) {
-			if (Brain.areCompatible(b, tri.representative)) {
-				tri.add(b);
-				return tri;
-			}
+		FlightEvents.Speciation event = new FlightEvents.Speciation();
+		event.begin();
+		if (tribeIndex == null)
+			tribeIndex = new TribeIndex(tribes, params);
+		Tribe ret = tribeIndex.findCompatible(b, getRandom());
+		boolean founded = ret == null;
+		if (founded) {
+			ret = new Tribe(this, b);
+			tribeIndex.add(ret);
 		}
-		Tribe ret = new Tribe(this, b);
 		ret.add(b);
+		if (event.shouldCommit()) {
+			event.speciesID = ID;
+			event.generation = numGenerations;
+			event.brainID = b.getID();
+			event.tribeID = ret.ID;
+			event.genomeSize = b.dna.numGenes();
+			event.numTribes = tribes.size();
+			event.comparisons = tribeIndex.lastComparisons;
+			event.newTribe = founded;
+			event.commit();
+		}
 		return ret;
 	}
 
+	/**
+	 * Called by GenomeStore's constructor.
+	 * 
+	 * @param store
+	 *            new store of this Species' genomes
+	 */
+	protected synchronized void attachStore(GenomeStore store) {
+		if (stores == null)
+			stores = Collections.newSetFromMap(new WeakHashMap<GenomeStore, Boolean>());
+		stores.add(store);
+	}
+
+	/**
+	 * Called when a Brain's genome is changed after its birth was recorded,
+	 * so the lineage journal no longer uses it as a base for deltas
+	 * 
+	 * @param b
+	 *            the changed Brain
+	 */
+	protected void genomeTuned(Brain b) {
+		LineageJournal j = journal;
+		if (j != null)
+			j.forget(b);
+	}
+
+	/**
+	 * Drops every registered connection and node that is not carried by a
+	 * living Brain. Innovation numbers and node IDs are never reused, so the
+	 * historical markings of surviving genes stay valid.
+	 */
+	protected synchronized void pruneRegistry() {
+		HashSet<Integer> liveInnovations = new HashSet<Integer>();
+		HashSet<Integer> liveNodes = new HashSet<Integer>();
+		for (NNode n : inputs) {
+			liveNodes.add(n.ID);
+		}
+		for (NNode n : outputs) {
+			liveNodes.add(n.ID);
+		}
+		for (Brain b : getLivingBrains()) {
+			liveInnovations.addAll(b.dna.getInnovations());
+			for (NNode n : b.dna.getNodes()) {
+				liveNodes.add(n.ID);
+			}
+		}
+		if (stores != null) {
+			for (GenomeStore s : stores) {
+				s.collectLive(liveInnovations, liveNodes);
+			}
+		}
+
+		int before = innovations.size() + nodes.size();
+		innovations.values().retainAll(liveInnovations);
+		nodes.keySet().retainAll(liveNodes);
+		report("SPECIES " + ID + ": Pruned "
+				+ (before - innovations.size() - nodes.size())
+				+ " registry entries, " + innovations.size()
+				+ " innovations and " + nodes.size() + " nodes remain.");
+	}
+
+	/**
+	 * Collects every Brain whose genome must stay valid: members of a Tribe,
+	 * Tribe representatives, the hall of fame and Brains waiting to be
+	 * evaluated.
+	 * 
+	 * @return living Brains
+	 */
+	private HashSet<Brain> getLivingBrains() {
+		HashSet<Brain> living = new HashSet<Brain>(unevaluated);
+		living.addAll(hallOfFame);
+		for (Tribe t : tribes) {
+			living.addAll(t.brains);
+			if (t.representative != null)
+				living.add(t.representative);
+		}
+		return living;
+	}
+
+	/**
+	 * Packs the endpoints of a connection into a registry key
+	 * 
+	 * @param start
+	 *            starting node ID
+	 * @param end
+	 *            ending node ID
+	 * @return key for the innovation registry
+	 */
+	private static long connectionKey(int start, int end) {
+		return ((long) start << 32) | (end & 0xffffffffL);
+	}
+
 	// NEAT EPOCH AND HELPER METHODS:
 	/**
 	 * This method controls major elements of the evolutionary process including
@@ -229,87 +687,452 @@ public class Species implements Serializable {
 	 */
 	private void newGeneration() {
 		numGenerations++;
-		Braincraft.report("Species " + ID + " has grown for " + numGenerations + " generations.");
+		report("Species " + ID + " has grown for " + numGenerations + " generations.");
+		FlightEvents.GenerationPhase phase;
+		if (params.noveltyWeight > 0) {
+			phase = FlightEvents.startPhase(ID, numGenerations, "novelty");
+			assignNovelty();
+			phase.commit();
+		}
+		updateHallOfFame();
+		phase = FlightEvents.startPhase(ID, numGenerations, "sharing");
 		double totalFitness = 0.0;
-		Tribe champTribe = tribes.get(0);
+		Tribe champTribe = null;
 		// Tribe loop to determine adjusted fitnesses
 		for (Tribe t : tribes) {
 			double tribeFitness = 0.0;
 			int tribeSize = t.brains.size();
+			t.recordBestFitness(numGenerations);
 			if (tribeSize == 0)
 				continue;
 
 			// Calculate adjusted fitness for each Brain
 			for (int i = 0; i < tribeSize; i++) {
 				Brain b = t.brains.get(i);
+				// Every tribe member within the threshold in use shares the
+				// Brain's fitness, the Brain itself included
 				int denominator = 0;
 				for (int j = 0; j < tribeSize; j++) {
-					if (i == j)
-						continue;
-					if (!Brain.areCompatible(b, t.brains.get(j)))
+					if (i == j
+							|| Brain.compatibilityDistance(b, t.brains.get(j)) < compThresh)
 						denominator++;
 				}
-				b.adjustedFitness = b.fitness / denominator;
+				b.adjustedFitness = b.getSelectionFitness() / denominator;
 				tribeFitness += b.adjustedFitness;
 				totalFitness += b.adjustedFitness;
 			}
-			// Sort by adjusted fitness
+			// Sort by adjusted fitness, fittest first
 			Collections.sort(t.brains);
 			// Assign champ by adj fitness
-			t.representative = t.brains.get(tribeSize - 1);
+			t.representative = t.brains.get(0);
+			tribeIndex = null;
 			t.fitness = tribeFitness;
 			// Assign superchamp tribe
-			if (champTribe.representative.fitness < t.representative.fitness) {
+			if (champTribe == null
+					|| champTribe.representative.getSelectionFitness() < t.representative
+							.getSelectionFitness()) {
 				champTribe = t;
 			}
 		}
 
+		// Cull tribes that have stopped improving, longest stagnant first,
+		// sparing the champion's tribe and always leaving two tribes with
+		// members to keep some diversity. Dropping their adjusted fitness
+		// from the total hands their share of the offspring to the
+		// remaining tribes.
+		if (params.stagnationLimit > 0) {
+			ArrayList<Tribe> stagnant = new ArrayList<Tribe>();
+			for (Tribe t : tribes) {
+				if (t != champTribe && t.brains.size() > 0
+						&& t.isStagnant(numGenerations, params.stagnationLimit))
+					stagnant.add(t);
+			}
+			int numLiving = getNumTribes();
+			Collections.sort(stagnant, new Comparator<Tribe>() {
+				public int compare(Tribe a, Tribe b) {
+					return a.lastImprovement - b.lastImprovement;
+				}
+			});
+			for (Tribe t : stagnant) {
+				if (numLiving <= MIN_TRIBES)
+					break;
+				numLiving--;
+				totalFitness -= t.fitness;
+				tribes.remove(t);
+				tribeIndex = null;
+				report("Species " + ID + " culled tribe " + t.ID + " after "
+						+ (numGenerations - t.lastImprovement)
+						+ " generations without improvement.");
+			}
+		}
+		phase.commit();
+
 		// Determine reproduction rights, remove poor-performing members
+		phase = FlightEvents.startPhase(ID, numGenerations, "planning");
 		int numBabiesDealt = 0;
+		ArrayList<Brain> elites = new ArrayList<Brain>();
+		ArrayList<Tribe> eliteTribes = new ArrayList<Tribe>();
 		for (Tribe t : tribes) {
 			// Number of Babies a tribe gets is equal to its share of the total
 			// fitness multiplied by the population size.
 			int designatedBabies = (int) ((t.fitness / totalFitness) * populationSize);
 			numBabiesDealt += designatedBabies;
 			t.numBabies = designatedBabies;
-			// Remove part of the tribe
-			int numUnfit = (int) (Braincraft.percentageOfTribeToKillBeforeReproduction * t.brains
-					.size());
-			for (int i = t.brains.size() - numUnfit; i < t.brains.size(); i++) {
-				t.brains.remove(i);
+			// The tribe's best members take some of those places unchanged
+			int numElites = Math.min(params.elitesPerTribe,
+					Math.min(t.brains.size(), t.numBabies - 1));
+			for (int i = 0; i < numElites; i++) {
+				elites.add(t.brains.get(i));
+				eliteTribes.add(t);
 			}
+			if (numElites > 0)
+				t.numBabies -= numElites;
+			// Remove the least fit part of the tribe, which sorts last
+			int size = t.brains.size();
+			int numUnfit = (int) (params.percentageOfTribeToKillBeforeReproduction * size);
+			t.brains.subList(size - numUnfit, size).clear();
 		}
 		// Assign champTribe the rounded-off babies
-		if (populationSize > numBabiesDealt) {
+		if (champTribe != null && populationSize > numBabiesDealt) {
 			champTribe.numBabies += (populationSize - numBabiesDealt);
 		}
 
-		// Reproduce designated number of babies
+		// Plan the offspring: which tribe breeds each child and the seed of
+		// the child's own random number generator. Drawn on this thread so
+		// a seeded run always makes the same plan.
+		final ArrayList<Tribe> parentTribes = new ArrayList<Tribe>();
+		ArrayList<Long> seedList = new ArrayList<Long>();
 		for (Tribe t : tribes) {
-			ArrayList<Brain> newBrains = new ArrayList<Brain>();
-			// Create offspring
 			for (int i = 0; i < t.numBabies; i++) {
+				parentTribes.add(t);
+				seedList.add(getRandom().nextLong());
+			}
+		}
+		final int numChildren = parentTribes.size();
+		final Random[] childRandoms = new Random[numChildren];
+		for (int i = 0; i < numChildren; i++) {
+			childRandoms[i] = new Random(seedList.get(i));
+		}
+		phase.commit();
+
+		// Crossover and weight mutation, spread across worker threads. Each
+		// child only reads its parents and draws from its own generator.
+		phase = FlightEvents.startPhase(ID, numGenerations, "crossover");
+		final DNA[] childDNA = new DNA[numChildren];
+		final Brain[] mothers = new Brain[numChildren];
+		final Brain[] fathers = new Brain[numChildren];
+		runInParallel(numChildren, new ChildTask() {
+			public void run(int i) {
+				Tribe t = parentTribes.get(i);
 				Brain mother = t.getRandomMemberBrain();
 				Brain father = t.getRandomMemberBrain();
-				Brain child = Brain.crossBrains(mother, father);
-				newBrains.add(child);
+				mothers[i] = mother;
+				fathers[i] = father;
+				DNA child = Brain.crossDNA(mother, father);
+				if (child != null
+						&& Braincraft.randomChance(getRandom(), params.weightMutationRate)) {
+					FlightEvents.Mutation event = FlightEvents.startMutation(
+							Species.this, -1, "weights");
+					child.mutateWeights(getRandom(),
+							params.perWeightMutationRate);
+					FlightEvents.endMutation(event, child);
+				}
+				childDNA[i] = child;
 			}
-			// Clear up some Tribe fields
+		}, childRandoms);
+		phase.commit();
+
+		// Births, structural mutations and speciation, in plan order on this
+		// thread so Brain IDs, node IDs, innovation numbers and Tribes come
+		// out the same on every seeded run
+		phase = FlightEvents.startPhase(ID, numGenerations, "births");
+		for (Tribe t : tribes) {
 			t.brains.clear();
-			t.brains.addAll(newBrains);
 			t.fitness = 0;
 			t.numBabies = 0;
-			unevaluated.addAll(newBrains);
+		}
+		for (int i = 0; i < elites.size(); i++) {
+			eliteTribes.get(i).add(elites.get(i));
+		}
+		Brain[] children = new Brain[numChildren];
+		for (int i = 0; i < numChildren; i++) {
+			if (childDNA[i] == null)
+				continue;
+			Braincraft.setThreadRandom(childRandoms[i]);
+			try {
+				Brain child = new Brain(this, childDNA[i]);
+				children[i] = child;
+				if (Braincraft.randomChance(getRandom(), params.linkMutationRate))
+					child.mutateAddLink();
+				if (Braincraft.randomChance(getRandom(), params.nodeMutationRate))
+					child.mutateAddNode();
+				getTribe(child);
+				unevaluated.add(child);
+			} finally {
+				Braincraft.setThreadRandom(null);
+			}
+		}
+		phase.commit();
+
+		// Steer the threshold towards the target number of tribes
+		if (params.targetTribes > 0)
+			adaptCompatibilityThreshold();
+		compThreshHistory.add(compThresh);
+
+		// Garbage-collect genes that have stayed disabled for too long
+		if (params.disabledGeneLifetime > 0) {
+			phase = FlightEvents.startPhase(ID, numGenerations, "collection");
+			int collected = 0;
+			for (Brain b : unevaluated) {
+				collected += b.collectDisabledGenes(params.disabledGeneLifetime);
+			}
+			report("Species " + ID + " collected " + collected
+					+ " disabled genes.");
+			phase.commit();
+		}
+
+		// Record the finished offspring against their parents
+		if (journal != null) {
+			phase = FlightEvents.startPhase(ID, numGenerations, "journal");
+			try {
+				for (int i = 0; i < numChildren; i++) {
+					if (children[i] != null)
+						journal.birth(children[i], mothers[i], fathers[i],
+								numGenerations);
+				}
+				journal.flush();
+			} catch (IOException e) {
+				reportError("Could not write to lineage journal.");
+				stopJournal();
+			}
+			phase.commit();
+		}
+
+		// Periodically forget innovations that no living Brain carries
+		if (params.registryPruneInterval > 0
+				&& numGenerations % params.registryPruneInterval == 0) {
+			phase = FlightEvents.startPhase(ID, numGenerations, "pruning");
+			pruneRegistry();
+			phase.commit();
+		}
+	}
+
+	/**
+	 * Moves the compatibility threshold one step towards holding targetTribes
+	 * non-empty Tribes, never going below minCompThresh. Offspring join a
+	 * random compatible Tribe, so raising the threshold alone keeps every
+	 * Tribe fed. When there are too many Tribes the raised threshold is also
+	 * used to fold Tribes into the oldest Tribe whose representative they are
+	 * now compatible with, until the target is reached. Empty Tribes are
+	 * folded whenever they are compatible, which keeps them from scattering
+	 * the offspring.
+	 */
+	private synchronized void adaptCompatibilityThreshold() {
+		int numTribes = getNumTribes();
+		double step = params.compThreshStep;
+		if (numTribes < params.targetTribes) {
+			compThresh = Math.max(params.minCompThresh, compThresh - step);
+		} else if (numTribes > params.targetTribes) {
+			compThresh += step;
+			int excess = numTribes - params.targetTribes;
+			ArrayList<Tribe> kept = new ArrayList<Tribe>();
+			for (Tribe t : tribes) {
+				boolean living = t.brains.size() > 0;
+				Tribe into = null;
+				if (!living || excess > 0) {
+					for (Tribe k : kept) {
+						if ((!living || k.brains.size() > 0)
+								&& Brain.areCompatible(k.representative,
+										t.representative)) {
+							into = k;
+							break;
+						}
+					}
+				}
+				if (into == null) {
+					kept.add(t);
+					continue;
+				}
+				for (Brain b : t.brains) {
+					into.add(b);
+				}
+				if (living)
+					excess--;
+			}
+			tribes = kept;
+			tribeIndex = null;
+		} else
+			return;
+		report("Species " + ID + " had " + numTribes + " tribes, compatibility "
+				+ "threshold is now " + compThresh + ".");
+	}
+
+	/**
+	 * Merges the evaluated members of every Tribe into the hall of fame,
+	 * keeping the best hallOfFameSize Brains by fitness
+	 */
+	private synchronized void updateHallOfFame() {
+		if (params.hallOfFameSize <= 0) {
+			hallOfFame.clear();
+			return;
+		}
+		HashSet<Brain> merged = new HashSet<Brain>(hallOfFame);
+		for (Tribe t : tribes) {
+			for (Brain b : t.brains) {
+				if (b.fitness != null)
+					merged.add(b);
+			}
+		}
+		ArrayList<Brain> ranked = new ArrayList<Brain>(merged);
+		Collections.sort(ranked, new Comparator<Brain>() {
+			public int compare(Brain a, Brain b) {
+				return Double.compare(b.fitness, a.fitness);
+			}
+		});
+		hallOfFame = new ArrayList<Brain>(ranked.subList(0,
+				Math.min(params.hallOfFameSize, ranked.size())));
+	}
+
+	/**
+	 * Gives every evaluated Brain that reported a behavior its novelty: the
+	 * mean distance from its behavior to the noveltyNeighbours nearest
+	 * behaviors in the current population and the archive. Afterwards a
+	 * random noveltyArchiveRate share of the population's behaviors is added
+	 * to the archive.
+	 */
+	private void assignNovelty() {
+		ArrayList<Brain> described = new ArrayList<Brain>();
+		KDTree population = new KDTree();
+		for (Tribe t : tribes) {
+			for (Brain b : t.brains) {
+				if (b.behavior != null) {
+					described.add(b);
+					population.insert(b.behavior);
+				}
+			}
+		}
+
+		for (Brain b : described) {
+			// The Brain always finds its own behavior at distance 0, so ask
+			// for one extra neighbour and leave it out of the mean
+			KDTree.Neighbours nearest = new KDTree.Neighbours(
+					params.noveltyNeighbours + 1);
+			population.nearest(b.behavior, nearest);
+			archive.nearest(b.behavior, nearest);
+			int others = nearest.count() - 1;
+			b.novelty = others > 0 ? nearest.sum() / others : 0.0;
+		}
+
+		for (Brain b : described) {
+			if (Braincraft.randomChance(getRandom(), params.noveltyArchiveRate))
+				archive.insert(b.behavior);
+		}
+		report("SPECIES " + ID + ": Novelty archive holds "
+				+ archive.size() + " behaviors.");
+	}
+
+	// PARALLEL HELPER METHODS:
+	/**
+	 * A unit of per-child work in a new generation
+	 */
+	private interface ChildTask {
+		void run(int child);
+	}
+
+	/**
+	 * Runs a task once for every child, using up to reproductionThreads
+	 * threads. While child i is worked on, the library's random helpers draw
+	 * from randoms[i].
+	 * 
+	 * @param numChildren
+	 *            number of children
+	 * @param task
+	 *            work to do for each child
+	 * @param randoms
+	 *            random number generator of each child
+	 */
+	private void runInParallel(final int numChildren, final ChildTask task,
+			final Random[] randoms) {
+		int numThreads = Math.min(params.reproductionThreads, numChildren);
+		if (numThreads <= 1) {
+			for (int i = 0; i < numChildren; i++) {
+				runChild(task, i, randoms[i]);
+			}
+			return;
+		}
+
+		// Interleave children across tasks so tribes of different sizes
+		// share the load evenly
+		ArrayList<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+		for (int j = 0; j < numThreads; j++) {
+			final int first = j;
+			final int stride = numThreads;
+			jobs.add(new Callable<Object>() {
+				public Object call() {
+					for (int i = first; i < numChildren; i += stride) {
+						runChild(task, i, randoms[i]);
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Object> f : getWorkers().invokeAll(jobs)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Reproduction was interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Reproduction failed.", e.getCause());
+		}
+	}
+
+	private static void runChild(ChildTask task, int child, Random r) {
+		Braincraft.setThreadRandom(r);
+		try {
+			task.run(child);
+		} finally {
+			Braincraft.setThreadRandom(null);
+		}
+	}
+
+	/**
+	 * Returns this Species' pool of reproduction threads, creating it on first
+	 * use. The threads are daemons so they never keep the JVM alive, and exit
+	 * once they have been idle for WORKER_KEEP_ALIVE seconds, so a Species
+	 * that has stopped breeding holds no threads.
+	 * 
+	 * @return thread pool
+	 */
+	private synchronized ExecutorService getWorkers() {
+		if (workers == null) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(
+					params.reproductionThreads, params.reproductionThreads,
+					WORKER_KEEP_ALIVE, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new WorkerFactory(
+							"braincraft-species-" + ID));
+			pool.allowCoreThreadTimeOut(true);
+			workers = pool;
+		}
+		return workers;
+	}
+
+	/**
+	 * Makes daemon reproduction threads. A static class, so that the threads
+	 * of a pool never hold on to the Species that made it.
+	 */
+	private static class WorkerFactory implements ThreadFactory {
+		private final String name;
+
+		private WorkerFactory(String threadName) {
+			name = threadName;
 		}
 
-		// Perform mutations
-		for (Brain b : unevaluated) {
-			if (Braincraft.randomChance(Braincraft.weightMutationRate))
-				b.mutateWeights();
-			if (Braincraft.randomChance(Braincraft.linkMutationRate))
-				b.mutateAddLink();
-			if (Braincraft.randomChance(Braincraft.nodeMutationRate))
-				b.mutateAddNode();
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
 		}
 	}
 
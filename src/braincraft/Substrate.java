@@ -0,0 +1,103 @@
+package braincraft;
+
+import java.io.Serializable;
+
+/**
+ * A Substrate is the geometry of a large, layered, fixed-topology network
+ * whose weights are painted by an evolved Brain acting as a CPPN (HyperNEAT).
+ * Every node of a layer is connected to every node of the next layer. The
+ * weight of a connection is the CPPN's output when queried with the
+ * coordinates of its two endpoints, so a Species evolving CPPNs for a
+ * Substrate must have getCPPNInputs() inputs and 1 output.
+ */
+public class Substrate implements Serializable {
+	// FIELDS:
+	/**
+	 * Coordinates of every node, by layer. Layer 0 holds the inputs and the
+	 * last layer holds the outputs.
+	 */
+	protected double[][][] layers;
+	/**
+	 * Number of coordinates of each node
+	 */
+	protected int dimensions;
+	/**
+	 * CPPN outputs (mapped to [-1, 1]) smaller than this in magnitude give no
+	 * connection
+	 */
+	protected double weightThreshold;
+	/**
+	 * Magnitude of the strongest possible substrate weight
+	 */
+	protected double maxWeight;
+
+	// CONSTRUCTORS:
+	/**
+	 * Constructor for a new Substrate with the usual HyperNEAT weight
+	 * threshold of 0.2 and maximum weight of 3.
+	 *
+	 * @param layerCoordinates
+	 *            coordinates of every node, by layer, from the input layer to
+	 *            the output layer
+	 */
+	public Substrate(double[][][] layerCoordinates) {
+		this(layerCoordinates, 0.2, 3.0);
+	}
+
+	/**
+	 * Constructor for a new Substrate.
+	 *
+	 * @param layerCoordinates
+	 *            coordinates of every node, by layer, from the input layer to
+	 *            the output layer
+	 * @param threshold
+	 *            CPPN outputs smaller than this in magnitude give no
+	 *            connection
+	 * @param max
+	 *            magnitude of the strongest possible substrate weight
+	 */
+	public Substrate(double[][][] layerCoordinates, double threshold,
+			double max) {
+		if (layerCoordinates.length < 2)
+			throw new IllegalArgumentException(
+					"A Substrate needs at least an input and an output layer.");
+		layers = layerCoordinates;
+		dimensions = layerCoordinates[0][0].length;
+		weightThreshold = threshold;
+		maxWeight = max;
+	}
+
+	// PUBLIC METHODS:
+	/**
+	 * Get the number of inputs a CPPN for this Substrate takes: the
+	 * coordinates of both endpoints of a connection and a constant bias.
+	 *
+	 * @return number of CPPN inputs
+	 */
+	public int getCPPNInputs() {
+		return 2 * dimensions + 1;
+	}
+
+	/**
+	 * Get the number of inputs of the substrate network
+	 *
+	 * @return number of nodes in the input layer
+	 */
+	public int getNumInputs() {
+		return layers[0].length;
+	}
+
+	/**
+	 * Get the number of outputs of the substrate network
+	 *
+	 * @return number of nodes in the output layer
+	 */
+	public int getNumOutputs() {
+		return layers[layers.length - 1].length;
+	}
+
+	/**
+	 * Version ID for serialization
+	 */
+	private static final long serialVersionUID = 1L;
+}
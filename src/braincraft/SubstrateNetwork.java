@@ -0,0 +1,106 @@
+package braincraft;
+
+/**
+ * The network a CPPN paints onto a Substrate. Each pair of adjacent layers
+ * keeps its weights in one dense row-major matrix (one row per target node),
+ * so evaluation is a series of matrix-vector products that stream through
+ * memory in order.
+ */
+class SubstrateNetwork {
+	// FIELDS:
+	/**
+	 * The Substrate these weights were painted on
+	 */
+	protected Substrate substrate;
+	/**
+	 * Weights between layer l and layer l + 1, indexed [target * sources +
+	 * source]
+	 */
+	protected double[][] weights;
+	/**
+	 * Coefficient of x in the sigmoid of every substrate node
+	 */
+	protected double sigmoidCoefficient;
+
+	// CONSTRUCTORS:
+	/**
+	 * Queries a CPPN for every connection of a Substrate.
+	 *
+	 * @param cppn
+	 *            Phenotype of the CPPN Brain
+	 * @param sub
+	 *            the Substrate to paint
+	 */
+	protected SubstrateNetwork(Phenotype cppn, Substrate sub) {
+		substrate = sub;
+		sigmoidCoefficient = cppn.sigmoidCoefficient;
+		int dims = sub.dimensions;
+		weights = new double[sub.layers.length - 1][];
+		for (int l = 0; l < weights.length; l++) {
+			double[][] from = sub.layers[l];
+			double[][] to = sub.layers[l + 1];
+			weights[l] = new double[from.length * to.length];
+
+			// One batch of CPPN queries per target node: the source halves of
+			// the rows stay put and only the target half is rewritten
+			double[][] queries = new double[from.length][2 * dims + 1];
+			for (int s = 0; s < from.length; s++) {
+				System.arraycopy(from[s], 0, queries[s], 0, dims);
+				queries[s][2 * dims] = 1.0;
+			}
+			for (int t = 0; t < to.length; t++) {
+				for (int s = 0; s < from.length; s++) {
+					System.arraycopy(to[t], 0, queries[s], dims, dims);
+				}
+				double[][] out = cppn.evaluateBatch(queries);
+				int row = t * from.length;
+				for (int s = 0; s < from.length; s++) {
+					weights[l][row + s] = expressWeight(out[s][0], sub);
+				}
+			}
+		}
+	}
+
+	// EVALUATION METHODS:
+	/**
+	 * Computes the substrate network's outputs for the given inputs.
+	 *
+	 * @param inputs
+	 *            one value per input layer node
+	 * @return one value per output layer node
+	 */
+	protected double[] evaluate(double[] inputs) {
+		double coefficient = sigmoidCoefficient;
+		double[] values = inputs;
+		for (int l = 0; l < weights.length; l++) {
+			double[] w = weights[l];
+			int sources = values.length;
+			double[] next = new double[w.length / sources];
+			for (int t = 0; t < next.length; t++) {
+				int row = t * sources;
+				double sum = 0.0;
+				for (int s = 0; s < sources; s++) {
+					sum += w[row + s] * values[s];
+				}
+				next[t] = Phenotype.sigmoid(sum, coefficient);
+			}
+			values = next;
+		}
+		return values;
+	}
+
+	// HELPER METHODS:
+	/**
+	 * Turns a CPPN output in (0, 1) into a substrate weight. Outputs close to
+	 * the middle give no connection; the rest are scaled to the Substrate's
+	 * weight range.
+	 */
+	private static double expressWeight(double output, Substrate sub) {
+		double w = 2 * output - 1;
+		if (Math.abs(w) < sub.weightThreshold)
+			return 0.0;
+		double scaled = (Math.abs(w) - sub.weightThreshold)
+				/ (1 - sub.weightThreshold) * sub.maxWeight;
+		return w < 0 ? -scaled : scaled;
+	}
+}
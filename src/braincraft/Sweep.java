@@ -0,0 +1,423 @@
+package braincraft;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a ThoughtExperiment under many sets of NEAT parameters at once to find
+ * good ones. Configurations come from a grid of values, from random draws
+ * over ranges, or from both: every grid point is combined with the given
+ * number of random draws.
+ *
+ * Configurations run in parallel, one per thread, and are stopped early by
+ * asynchronous successive halving (ASHA). When a configuration reaches one
+ * of the rungs minGenerations, minGenerations * reductionFactor, ... it keeps
+ * going only if its best fitness so far is among the top 1 / reductionFactor
+ * of the configurations that reached that rung before it. Each finished
+ * configuration is written to the results file straight away, as CSV or, for
+ * files ending in .jsonl, as one JSON object per line.
+ */
+public class Sweep {
+	/**
+	 * Makes a fresh experiment for each configuration of a sweep
+	 */
+	public interface ExperimentFactory {
+		/**
+		 * Creates an experiment whose Species evolve under the given
+		 * parameters
+		 *
+		 * @param params
+		 *            parameters of this configuration
+		 * @return a new experiment
+		 */
+		ThoughtExperiment create(Parameters params);
+	}
+
+	// FIELDS:
+	private ExperimentFactory factory;
+	/**
+	 * Parameters that are not swept
+	 */
+	private Parameters base;
+	/**
+	 * Values tried for each grid parameter
+	 */
+	private LinkedHashMap<String, double[]> grid;
+	/**
+	 * Minimum, maximum and log-scale flag of each random parameter
+	 */
+	private LinkedHashMap<String, double[]> ranges;
+	private int samples;
+	private int minGenerations;
+	private int maxGenerations;
+	private int reductionFactor;
+	private int threads;
+	private Random rng;
+	/**
+	 * Generations at which configurations may be stopped
+	 */
+	private int[] rungs;
+	/**
+	 * Best fitness of every configuration that reached each rung
+	 */
+	private ArrayList<ArrayList<Double>> rungScores;
+	private BufferedWriter out;
+	private boolean jsonLines;
+	private IOException writeFailure;
+
+	// CONSTRUCTORS:
+	/**
+	 * Constructor for a sweep around the default parameters. Each
+	 * configuration breeds on its own thread, as the sweep already keeps
+	 * every core busy.
+	 *
+	 * @param experiments
+	 *            makes the experiment for each configuration
+	 */
+	public Sweep(ExperimentFactory experiments) {
+		this(experiments, singleThreaded());
+	}
+
+	/**
+	 * Constructor for a sweep around the given parameters.
+	 *
+	 * @param experiments
+	 *            makes the experiment for each configuration
+	 * @param baseParameters
+	 *            values of every parameter that is not swept
+	 */
+	public Sweep(ExperimentFactory experiments, Parameters baseParameters) {
+		factory = experiments;
+		base = baseParameters;
+		grid = new LinkedHashMap<String, double[]>();
+		ranges = new LinkedHashMap<String, double[]>();
+		samples = 1;
+		minGenerations = 2;
+		maxGenerations = 50;
+		reductionFactor = 3;
+		threads = Runtime.getRuntime().availableProcessors();
+		rng = new Random();
+	}
+
+	// PUBLIC METHODS:
+	/**
+	 * Tries each of the given values of a parameter
+	 *
+	 * @param name
+	 *            parameter name, as spelled in Parameters
+	 * @param values
+	 *            values to try
+	 */
+	public void addGrid(String name, double... values) {
+		checkName(name);
+		grid.put(name, values.clone());
+	}
+
+	/**
+	 * Draws a parameter at random for each configuration
+	 *
+	 * @param name
+	 *            parameter name, as spelled in Parameters
+	 * @param min
+	 *            smallest value
+	 * @param max
+	 *            largest value
+	 * @param logScale
+	 *            whether to draw uniformly on a log scale, for parameters
+	 *            whose good values span orders of magnitude; min must then
+	 *            be positive
+	 */
+	public void addRange(String name, double min, double max, boolean logScale) {
+		checkName(name);
+		if (logScale && min <= 0)
+			throw new IllegalArgumentException("Log-scale range of " + name
+					+ " must be positive.");
+		ranges.put(name, new double[] { min, max, logScale ? 1 : 0 });
+	}
+
+	/**
+	 * Sets the number of random draws made for every grid point. Only used
+	 * when a range has been added.
+	 *
+	 * @param n
+	 *            number of draws
+	 */
+	public void setSamples(int n) {
+		samples = n;
+	}
+
+	/**
+	 * Sets the successive halving schedule.
+	 *
+	 * @param minGens
+	 *            generations every configuration runs before it can be
+	 *            stopped
+	 * @param maxGens
+	 *            generations a configuration runs if it is never stopped
+	 * @param reduction
+	 *            each rung is this many times further than the one before
+	 *            and keeps this fraction, 1 / reduction, of configurations
+	 */
+	public void setSchedule(int minGens, int maxGens, int reduction) {
+		minGenerations = Math.max(1, minGens);
+		maxGenerations = maxGens;
+		reductionFactor = Math.max(2, reduction);
+	}
+
+	/**
+	 * Sets the number of configurations run at once
+	 *
+	 * @param n
+	 *            number of threads
+	 */
+	public void setThreads(int n) {
+		threads = Math.max(1, n);
+	}
+
+	/**
+	 * Seeds the random draws of parameter values
+	 *
+	 * @param seed
+	 *            the seed
+	 */
+	public void setSeed(long seed) {
+		rng.setSeed(seed);
+	}
+
+	/**
+	 * Runs every configuration and streams the results to a file. Blocks
+	 * until the sweep is done.
+	 *
+	 * @param file
+	 *            results file; CSV unless its name ends in .jsonl
+	 * @return parameters of the configuration with the highest fitness, or
+	 *         null if the results could not be written or no configuration
+	 *         finished
+	 */
+	public Parameters run(String file) {
+		ArrayList<LinkedHashMap<String, Double>> configs = makeConfigurations();
+		ArrayList<Integer> rungList = new ArrayList<Integer>();
+		for (long r = minGenerations; r < maxGenerations; r *= reductionFactor) {
+			rungList.add((int) r);
+		}
+		rungs = new int[rungList.size()];
+		rungScores = new ArrayList<ArrayList<Double>>();
+		for (int i = 0; i < rungs.length; i++) {
+			rungs[i] = rungList.get(i);
+			rungScores.add(new ArrayList<Double>());
+		}
+
+		ArrayList<Callable<Double>> jobs = new ArrayList<Callable<Double>>();
+		for (int i = 0; i < configs.size(); i++) {
+			final int id = i;
+			final LinkedHashMap<String, Double> values = configs.get(i);
+			jobs.add(new Callable<Double>() {
+				public Double call() {
+					return runConfiguration(id, values);
+				}
+			});
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		int bestID = -1;
+		double bestFitness = Double.NEGATIVE_INFINITY;
+		try {
+			jsonLines = file.endsWith(".jsonl");
+			out = new BufferedWriter(new FileWriter(file));
+			writeFailure = null;
+			if (!jsonLines)
+				writeHeader();
+			ArrayList<Future<Double>> results = new ArrayList<Future<Double>>(
+					pool.invokeAll(jobs));
+			for (int i = 0; i < results.size(); i++) {
+				double f = results.get(i).get();
+				if (f > bestFitness) {
+					bestFitness = f;
+					bestID = i;
+				}
+			}
+			out.close();
+		} catch (IOException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Sweep failed.", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		if (writeFailure != null || bestID == -1)
+			return null;
+		return toParameters(configs.get(bestID));
+	}
+
+	// HELPER METHODS:
+	/**
+	 * Runs one configuration until it is stopped or reaches maxGenerations
+	 *
+	 * @return the configuration's best fitness, or negative infinity if it
+	 *         failed
+	 */
+	private double runConfiguration(int id, LinkedHashMap<String, Double> values) {
+		double best = Double.NEGATIVE_INFINITY;
+		int generation = 0;
+		String status = "completed";
+		try {
+			ThoughtExperiment experiment = factory.create(toParameters(values));
+			int rung = 0;
+			while (generation < maxGenerations) {
+				best = Math.max(best, experiment.runGeneration());
+				generation++;
+				if (rung < rungs.length && generation == rungs[rung]) {
+					if (!promote(rung, best)) {
+						status = "stopped";
+						break;
+					}
+					rung++;
+				}
+			}
+		} catch (RuntimeException e) {
+			status = "failed";
+			best = Double.NEGATIVE_INFINITY;
+		}
+		write(id, values, generation, best, status);
+		return best;
+	}
+
+	/**
+	 * Records a configuration's fitness at a rung and decides whether it may
+	 * go on
+	 *
+	 * @return true if the fitness is among the top 1 / reductionFactor at
+	 *         the rung so far
+	 */
+	private synchronized boolean promote(int rung, double fitness) {
+		ArrayList<Double> scores = rungScores.get(rung);
+		scores.add(fitness);
+		Collections.sort(scores, Collections.reverseOrder());
+		int keep = (scores.size() + reductionFactor - 1) / reductionFactor;
+		return fitness >= scores.get(keep - 1);
+	}
+
+	/**
+	 * Lists every configuration: each grid point, combined with samples
+	 * random draws if there are ranges
+	 */
+	private ArrayList<LinkedHashMap<String, Double>> makeConfigurations() {
+		ArrayList<LinkedHashMap<String, Double>> points = new ArrayList<LinkedHashMap<String, Double>>();
+		points.add(new LinkedHashMap<String, Double>());
+		for (Map.Entry<String, double[]> axis : grid.entrySet()) {
+			ArrayList<LinkedHashMap<String, Double>> next = new ArrayList<LinkedHashMap<String, Double>>();
+			for (LinkedHashMap<String, Double> p : points) {
+				for (double v : axis.getValue()) {
+					LinkedHashMap<String, Double> q = new LinkedHashMap<String, Double>(p);
+					q.put(axis.getKey(), v);
+					next.add(q);
+				}
+			}
+			points = next;
+		}
+		if (ranges.isEmpty())
+			return points;
+
+		ArrayList<LinkedHashMap<String, Double>> ret = new ArrayList<LinkedHashMap<String, Double>>();
+		for (LinkedHashMap<String, Double> p : points) {
+			for (int s = 0; s < samples; s++) {
+				LinkedHashMap<String, Double> q = new LinkedHashMap<String, Double>(p);
+				for (Map.Entry<String, double[]> range : ranges.entrySet()) {
+					double[] r = range.getValue();
+					double u = rng.nextDouble();
+					if (r[2] == 1)
+						q.put(range.getKey(), Math.exp(Math.log(r[0]) + u
+								* (Math.log(r[1]) - Math.log(r[0]))));
+					else
+						q.put(range.getKey(), r[0] + u * (r[1] - r[0]));
+				}
+				ret.add(q);
+			}
+		}
+		return ret;
+	}
+
+	private Parameters toParameters(LinkedHashMap<String, Double> values) {
+		Parameters.Builder b = base.toBuilder();
+		for (Map.Entry<String, Double> v : values.entrySet()) {
+			b.set(v.getKey(), v.getValue());
+		}
+		return b.build();
+	}
+
+	private void writeHeader() throws IOException {
+		StringBuilder line = new StringBuilder("id");
+		for (String name : grid.keySet()) {
+			line.append(",").append(name);
+		}
+		for (String name : ranges.keySet()) {
+			line.append(",").append(name);
+		}
+		line.append(",generations,fitness,status\n");
+		out.write(line.toString());
+		out.flush();
+	}
+
+	/**
+	 * Appends one finished configuration to the results file
+	 */
+	private synchronized void write(int id, LinkedHashMap<String, Double> values,
+			int generations, double fitness, String status) {
+		StringBuilder line = new StringBuilder();
+		if (jsonLines) {
+			line.append("{\"id\":").append(id).append(",\"params\":{");
+			boolean first = true;
+			for (Map.Entry<String, Double> v : values.entrySet()) {
+				if (!first)
+					line.append(",");
+				first = false;
+				line.append("\"").append(v.getKey()).append("\":")
+						.append(v.getValue());
+			}
+			line.append("},\"generations\":").append(generations)
+					.append(",\"fitness\":")
+					.append(Double.isInfinite(fitness) || Double.isNaN(fitness) ? "null"
+							: Double.toString(fitness))
+					.append(",\"status\":\"").append(status).append("\"}\n");
+		} else {
+			line.append(id);
+			for (Double v : values.values()) {
+				line.append(",").append(v);
+			}
+			line.append(",").append(generations).append(",").append(fitness)
+					.append(",").append(status).append("\n");
+		}
+		try {
+			out.write(line.toString());
+			out.flush();
+		} catch (IOException e) {
+			writeFailure = e;
+		}
+	}
+
+	private static void checkName(String name) {
+		if (!new Parameters.Builder().set(name, 0))
+			throw new IllegalArgumentException("There is no parameter named "
+					+ name + ".");
+	}
+
+	private static Parameters singleThreaded() {
+		Parameters.Builder b = new Parameters.Builder();
+		b.reproductionThreads = 1;
+		return b.build();
+	}
+}
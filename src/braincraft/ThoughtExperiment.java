@@ -1,32 +1,142 @@
 package braincraft;
 
+import java.util.ArrayList;
+
 public abstract class ThoughtExperiment
 {
-	Braincraft lib = new Braincraft();
+	Braincraft lib;
 	Species spec;
 	Brain champ;
-	
+	/**
+	 * Limits on each evaluation. null lets every evaluation run to completion.
+	 */
+	EvaluationBudget budget;
+	/**
+	 * Number of evaluations that were cut off for running out of budget
+	 */
+	int numCutOff;
+
+	ThoughtExperiment()
+	{
+		this(new Parameters.Builder().build());
+	}
+
+	/**
+	 * Constructor for an experiment whose Species evolve under the given
+	 * parameters.
+	 *
+	 * @param params
+	 *            parameters of the experiment's library
+	 */
+	ThoughtExperiment(Parameters params)
+	{
+		lib = new Braincraft(params);
+	}
+
 	void createSpecies(int inputs, int outputs)
 	{
 		spec = lib.newSpecies(inputs, outputs);
 	}
-	
+
 	void createSpecies(int popSize, int inputs, int outputs)
 	{
 		spec = lib.newSpecies(popSize, inputs, outputs);
 	}
-	
+
+	void setBudget(EvaluationBudget b)
+	{
+		budget = b;
+	}
+
 	abstract void evaluate(Brain b);
-	
+
+	/**
+	 * Local search run on each Brain just before it is evaluated, within the
+	 * same budget. Changes made to the Brain's DNA are inherited by its
+	 * offspring. Does nothing unless overridden.
+	 *
+	 * @param b
+	 *            the Brain about to be evaluated
+	 */
+	void tune(Brain b)
+	{
+	}
+
+	/**
+	 * Evaluates a Brain within the experiment's budget. If the Brain runs out
+	 * of budget its evaluation is abandoned and it is given the budget's
+	 * penalty fitness.
+	 *
+	 * @param b
+	 *            the Brain to evaluate
+	 */
+	void evaluateWithinBudget(Brain b)
+	{
+		b.startBudget(budget);
+		try
+		{
+			tune(b);
+			evaluate(b);
+		}
+		catch (BudgetExceededException e)
+		{
+			numCutOff++;
+			spec.report(e.getMessage());
+			b.reportFitness(budget.penaltyFitness);
+		}
+		finally
+		{
+			b.startBudget(null);
+		}
+	}
+
 	void think(double threshold)
 	{
 		Brain b;
 		do
 		{
 			b = spec.getBrain();
-			evaluate(b);
+			evaluateWithinBudget(b);
 		}
 		while (b.getFitness() <= threshold);
 		champ = b;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Evaluates every Brain of a generation within the experiment's budget,
+	 * reporting each one's fitness.
+	 *
+	 * @param brains
+	 *            the generation to evaluate
+	 */
+	void evaluateGeneration(ArrayList<Brain> brains)
+	{
+		for (Brain b : brains)
+		{
+			evaluateWithinBudget(b);
+		}
+	}
+
+	/**
+	 * Evaluates one whole generation and keeps its best Brain as champ if it
+	 * beats the champ so far.
+	 *
+	 * @return the highest fitness in the generation
+	 */
+	double runGeneration()
+	{
+		ArrayList<Brain> brains = spec.getBrains();
+		evaluateGeneration(brains);
+		Brain best = null;
+		for (Brain b : brains)
+		{
+			if (best == null || b.getFitness() > best.getFitness())
+				best = b;
+		}
+		if (best == null)
+			return Double.NEGATIVE_INFINITY;
+		if (champ == null || best.getFitness() > champ.getFitness())
+			champ = best;
+		return best.getFitness();
+	}
+}
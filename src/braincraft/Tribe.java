@@ -11,6 +11,23 @@ public class Tribe implements Serializable
 	protected Brain representative;
 	protected double fitness;
 	protected int numBabies;
+	/**
+	 * Highest fitness any member of this Tribe has reached
+	 */
+	protected double bestFitness;
+	/**
+	 * Generation in which bestFitness was last raised
+	 */
+	protected int lastImprovement;
+	/**
+	 * Number of generations in a row this Tribe has had members
+	 */
+	protected int age;
+	/**
+	 * Best selection fitness of the members in each generation since this
+	 * Tribe was founded, NaN for generations it had no members
+	 */
+	protected ArrayList<Double> bestFitnessHistory;
 
 	protected Tribe(Species spec, Brain rep)
 	{
@@ -18,6 +35,9 @@ public class Tribe implements Serializable
 		species = spec;
 		brains = new ArrayList<Brain>();
 		representative = rep;
+		bestFitness = Double.NEGATIVE_INFINITY;
+		lastImprovement = spec.numGenerations;
+		bestFitnessHistory = new ArrayList<Double>();
 	}
 
 	protected void add(Brain b)
@@ -25,9 +45,75 @@ public class Tribe implements Serializable
 		brains.add(b);
 	}
 	
+	/**
+	 * Records the best selection fitness of the current members, raises
+	 * bestFitness to it if it is higher, and ages the Tribe. A Tribe that has
+	 * no members starts its age over.
+	 * 
+	 * @param generation
+	 *            the current generation
+	 */
+	protected void recordBestFitness(int generation)
+	{
+		if (brains.isEmpty())
+		{
+			age = 0;
+			bestFitnessHistory.add(Double.NaN);
+			return;
+		}
+		if (age == 0)
+			lastImprovement = generation;
+		age++;
+		double best = Double.NEGATIVE_INFINITY;
+		for (Brain b : brains)
+		{
+			best = Math.max(best, b.getSelectionFitness());
+		}
+		bestFitnessHistory.add(best);
+		if (best > bestFitness)
+		{
+			bestFitness = best;
+			lastImprovement = generation;
+		}
+	}
+
+	/**
+	 * Get the best selection fitness of this Tribe's members in each
+	 * generation since it was founded, oldest first
+	 * 
+	 * @return best fitness of each generation, NaN where the Tribe had no
+	 *         members
+	 */
+	protected double[] getBestFitnessHistory()
+	{
+		double[] ret = new double[bestFitnessHistory.size()];
+		for (int i = 0; i < ret.length; i++)
+		{
+			ret[i] = bestFitnessHistory.get(i);
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns true if this Tribe has gone the given number of generations
+	 * without raising its best fitness. The count starts over whenever the
+	 * Tribe is left empty and then gains members again, so a Tribe always
+	 * has that many generations in a row to grow before it is stagnant.
+	 * 
+	 * @param generation
+	 *            the current generation
+	 * @param limit
+	 *            number of generations allowed without improvement
+	 * @return whether the Tribe is stagnant
+	 */
+	protected boolean isStagnant(int generation, int limit)
+	{
+		return generation - lastImprovement >= limit;
+	}
+
 	protected Brain getRandomMemberBrain()
 	{
-		return brains.get(Braincraft.randomInteger(brains.size()));
+		return brains.get(Braincraft.randomInteger(species.getRandom(), brains.size()));
 	}
 	
 	/**
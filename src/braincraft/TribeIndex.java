@@ -0,0 +1,199 @@
+package braincraft;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A pivot index over Tribe representatives for speciation. Genomes are
+ * compared by the number of innovations that one has and the other lacks,
+ * which obeys the triangle inequality. So the distance of a Brain and of a
+ * representative to a few fixed pivot genomes bounds their distance to each
+ * other from below. That in turn bounds their compatibility distance from
+ * below, and a representative whose bound already reaches the Species'
+ * compatibility threshold is skipped without being compared gene by gene.
+ */
+class TribeIndex {
+	/**
+	 * Most pivot genomes an index measures against
+	 */
+	private static final int MAX_PIVOTS = 8;
+
+	// FIELDS:
+	private ArrayList<Entry> entries;
+	/**
+	 * Sorted innovation numbers of each pivot genome
+	 */
+	private ArrayList<int[]> pivots;
+	/**
+	 * Parameters of the indexed Species
+	 */
+	private Parameters params;
+	/**
+	 * Representatives compared gene by gene in the last search
+	 */
+	protected int lastComparisons;
+
+	// CONSTRUCTORS:
+	/**
+	 * Builds an index over the representatives of the given Tribes. Pivots
+	 * are picked farthest-first so that they spread over the population.
+	 *
+	 * @param tribes
+	 *            Tribes to index
+	 * @param parameters
+	 *            parameters of the Tribes' Species
+	 */
+	protected TribeIndex(List<Tribe> tribes, Parameters parameters) {
+		params = parameters;
+		entries = new ArrayList<Entry>();
+		pivots = new ArrayList<int[]>();
+		ArrayList<int[]> keys = new ArrayList<int[]>();
+		for (Tribe t : tribes) {
+			if (t.representative == null)
+				continue;
+			int[] key = keyOf(t.representative);
+			entries.add(new Entry(t, key.length));
+			keys.add(key);
+		}
+		if (entries.isEmpty())
+			return;
+
+		int[] nearestPivot = new int[entries.size()];
+		Arrays.fill(nearestPivot, Integer.MAX_VALUE);
+		int next = 0;
+		int numPivots = Math.min(MAX_PIVOTS, entries.size());
+		for (int p = 0; p < numPivots; p++) {
+			int[] pivot = keys.get(next);
+			pivots.add(pivot);
+			int farthest = -1;
+			for (int i = 0; i < entries.size(); i++) {
+				int d = distance(keys.get(i), pivot);
+				entries.get(i).distances[p] = d;
+				nearestPivot[i] = Math.min(nearestPivot[i], d);
+				if (farthest == -1 || nearestPivot[i] > nearestPivot[farthest])
+					farthest = i;
+			}
+			// Further pivots would duplicate ones already chosen
+			if (nearestPivot[farthest] == 0)
+				break;
+			next = farthest;
+		}
+	}
+
+	// LIBRARY METHODS:
+	/**
+	 * Adds a newly founded Tribe to the index
+	 *
+	 * @param t
+	 *            the Tribe, which must have a representative
+	 */
+	protected void add(Tribe t) {
+		int[] key = keyOf(t.representative);
+		Entry e = new Entry(t, key.length);
+		for (int p = 0; p < pivots.size(); p++) {
+			e.distances[p] = distance(key, pivots.get(p));
+		}
+		entries.add(e);
+	}
+
+	/**
+	 * Finds a Tribe whose representative is compatible with the given Brain.
+	 * The scan starts at a random Tribe, so a Brain that fits several Tribes
+	 * does not always join the oldest of them.
+	 *
+	 * @param b
+	 *            Brain looking for a Tribe
+	 * @param r
+	 *            random number generator to draw from
+	 * @return a compatible Tribe, or null if there is none
+	 */
+	protected Tribe findCompatible(Brain b, Random r) {
+		int size = entries.size();
+		lastComparisons = 0;
+		if (size == 0)
+			return null;
+		int[] key = keyOf(b);
+		int[] distances = new int[pivots.size()];
+		for (int p = 0; p < distances.length; p++) {
+			distances[p] = distance(key, pivots.get(p));
+		}
+
+		// Every excess or disjoint gene adds at least this much distance,
+		// provided the weight term cannot be negative
+		double perGene = Math.min(params.c1, params.c2);
+		if (params.c3 < 0 || perGene < 0)
+			perGene = 0;
+		double threshold = b.getSpecies().compThresh;
+
+		// Scan from a random entry instead of shuffling the Tribes
+		int start = Braincraft.randomInteger(r, size);
+		for (int n = 0; n < size; n++) {
+			Entry e = entries.get((start + n) % size);
+			int bound = Math.abs(key.length - e.numGenes);
+			for (int p = 0; p < distances.length; p++) {
+				bound = Math.max(bound, Math.abs(distances[p] - e.distances[p]));
+			}
+			int norm = Brain.compatibilityNormalizer(key.length, e.numGenes);
+			if (perGene * bound >= threshold * norm)
+				continue;
+			lastComparisons++;
+			if (Brain.areCompatible(b, e.tribe.representative))
+				return e.tribe;
+		}
+		return null;
+	}
+
+	// HELPER METHODS:
+	/**
+	 * Returns the sorted innovation numbers of a Brain's genes
+	 */
+	private static int[] keyOf(Brain b) {
+		Set<Integer> innovations = b.dna.getInnovations();
+		int[] ret = new int[innovations.size()];
+		int i = 0;
+		for (Integer inno : innovations) {
+			ret[i++] = inno;
+		}
+		Arrays.sort(ret);
+		return ret;
+	}
+
+	/**
+	 * Number of innovations in exactly one of two sorted arrays
+	 */
+	private static int distance(int[] a, int[] b) {
+		int i = 0;
+		int j = 0;
+		int shared = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				shared++;
+				i++;
+				j++;
+			}
+		}
+		return a.length + b.length - 2 * shared;
+	}
+
+	/**
+	 * An indexed Tribe with its representative's distance to each pivot
+	 */
+	private static class Entry {
+		private Tribe tribe;
+		private int numGenes;
+		private int[] distances;
+
+		private Entry(Tribe t, int genes) {
+			tribe = t;
+			numGenes = genes;
+			distances = new int[MAX_PIVOTS];
+		}
+	}
+}
@@ -10,19 +10,23 @@ public class XOR {
 		boolean[] xarr = { false, true };
 		boolean[] yarr = { false, true };
 		int fitness = 0;
+		double[][] rows = new double[4][2];
+		for (int x = 0; x < 2; x++) {
+			for (int y = 0; y < 2; y++) {
+				rows[x * 2 + y][0] = x;
+				rows[x * 2 + y][1] = y;
+			}
+		}
+		double[][] outputs = null;
+		try {
+			outputs = b.evaluateBatch(rows);
+		} catch (NetworkInputException e) {
+			System.out.println("oops");
+		}
 		for (int x = 0; x < 2; x++) {
 			for (int y = 0; y < 2; y++) {
-				double[] arr = new double[2];
-				arr[0] = x;
-				arr[1] = y;
-				double[] output = null;
-				try {
-					output = b.evaluate(arr);
-				} catch (NetworkInputException e) {
-					System.out.println("oops");
-				}
 				boolean result = true;
-				if (output[0] < 0.5) {
+				if (outputs[x * 2 + y][0] < 0.5) {
 					result = false;
 				}
 				if (result == (xarr[x] ^ yarr[y])) {
@@ -0,0 +1,81 @@
+package braincraft;
+
+/**
+ * Checks that breeding on several threads gives the same generations as
+ * breeding on one. The same seeded Species is evolved with one, two and four
+ * reproduction threads, and once more with four, scoring every Brain by its
+ * outputs so that any difference in a genome also changes selection. Each
+ * generation is reduced to a digest of every gene's innovation, weight bits
+ * and enabled flag, and the runs must agree on every digest.
+ */
+class BreedingCheck {
+	private static final int GENERATIONS = 40;
+	private static final int POPULATION = 150;
+	private static final int[] THREADS = { 1, 2, 4, 4 };
+
+	public static void main(String[] args) throws NetworkInputException {
+		long[][] digests = new long[THREADS.length][];
+		for (int run = 0; run < THREADS.length; run++) {
+			digests[run] = evolve(THREADS[run]);
+		}
+
+		int mismatches = 0;
+		for (int run = 1; run < THREADS.length; run++) {
+			for (int g = 0; g < GENERATIONS; g++) {
+				if (digests[run][g] != digests[0][g]) {
+					System.out.println(THREADS[run] + " threads (run " + run
+							+ ") first differs from 1 thread at generation "
+							+ g);
+					mismatches++;
+					break;
+				}
+			}
+		}
+		System.out.println(THREADS.length + " runs of " + GENERATIONS
+				+ " generations compared: " + mismatches + " differ");
+		if (mismatches > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Evolves a fresh Species and returns one digest per generation
+	 */
+	private static long[] evolve(int threads) throws NetworkInputException {
+		Parameters.Builder builder = new Parameters.Builder();
+		builder.reproductionThreads = threads;
+		Braincraft lib = new Braincraft(builder.build());
+		lib.setSeed(7);
+		Species spec = lib.newSpecies(POPULATION, 3, 1);
+		double[][] inputs = { { 0, 0, 1 }, { 0, 1, 1 }, { 1, 0, 1 },
+				{ 1, 1, 1 } };
+		double[] targets = { 0, 1, 1, 0 };
+
+		long[] digests = new long[GENERATIONS];
+		for (int g = 0; g < GENERATIONS; g++) {
+			long h = 17;
+			for (Brain b : spec.getBrains()) {
+				h = mix(h, b.getID());
+				for (Integer i : b.dna.getInnovations()) {
+					Gene gene = b.dna.getGene(i);
+					h = mix(h, gene.innovation);
+					h = mix(h, Double.doubleToLongBits(gene.weight));
+					h = mix(h, gene.enabled ? 1 : 0);
+				}
+				double error = 0;
+				for (int k = 0; k < inputs.length; k++) {
+					error += Math.abs(b.evaluate(inputs[k])[0] - targets[k]);
+				}
+				b.reportFitness((4 - error) * (4 - error));
+			}
+			digests[g] = h;
+		}
+		lib.shutdown();
+		return digests;
+	}
+
+	private static long mix(long h, long v) {
+		h ^= v;
+		h *= 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+}
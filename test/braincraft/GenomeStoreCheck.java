@@ -0,0 +1,137 @@
+package braincraft;
+
+import java.util.Random;
+
+/**
+ * Checks that GenomeStore.retain keeps exactly the genomes it is asked to
+ * keep. A store is bred for a number of rounds, with genomes growing and being
+ * rewritten at the end of the store. Each round every genome is copied out,
+ * then a shuffled selection that lists some genomes twice is retained. Every
+ * kept genome must match its copy gene for gene and give the same outputs, a
+ * genome listed twice must not share its genes with its twin, and a
+ * selection without repeats must fit in the memory the store already held.
+ */
+class GenomeStoreCheck {
+	private static final int ROUNDS = 40;
+	private static final int POPULATION = 60;
+	private static final double[] INPUT = { 0.3, -0.7, 1 };
+
+	public static void main(String[] args) throws NetworkInputException {
+		Parameters.Builder builder = new Parameters.Builder();
+		builder.reproductionThreads = 1;
+		Braincraft lib = new Braincraft(builder.build());
+		lib.setSeed(3);
+		Species spec = lib.newSpecies(POPULATION, 3, 2);
+		GenomeStore store = new GenomeStore(spec, POPULATION, 0);
+		for (Brain b : spec.getBrains()) {
+			store.add(b);
+		}
+
+		Random r = new Random(3);
+		int checked = 0;
+		int wrong = 0;
+		int shared = 0;
+		int grew = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			// Breed until the store holds twice the population
+			while (store.size() < 2 * POPULATION) {
+				int mother = r.nextInt(store.size());
+				int father = r.nextInt(store.size());
+				int child = store.crossover(mother, r.nextDouble(), father,
+						r.nextDouble());
+				store.mutateWeights(child);
+				if (r.nextDouble() < 0.3)
+					store.mutateAddNode(child);
+				if (r.nextDouble() < 0.5)
+					store.mutateAddLink(child);
+				// Rewrites an older genome so that the store has holes
+				if (r.nextDouble() < 0.3)
+					store.mutateAddLink(r.nextInt(store.size()));
+			}
+
+			String[] before = new String[store.size()];
+			for (int g = 0; g < before.length; g++) {
+				before[g] = describe(store.toBrain(g));
+			}
+
+			boolean repeats = round % 2 == 0;
+			int[] keep = select(r, store.size(), repeats);
+			long bytes = store.getAllocatedBytes();
+			store.retain(keep);
+			if (!repeats && store.getAllocatedBytes() > bytes)
+				grew++;
+
+			if (store.size() != keep.length) {
+				System.out.println("Round " + round + ": kept " + store.size()
+						+ " genomes, asked for " + keep.length);
+				System.exit(1);
+			}
+			for (int i = 0; i < keep.length; i++) {
+				checked++;
+				if (!describe(store.toBrain(i)).equals(before[keep[i]]))
+					wrong++;
+			}
+
+			// Changing one copy of a repeated genome must leave the other
+			for (int i = 0; i < keep.length; i++) {
+				for (int j = i + 1; j < keep.length; j++) {
+					if (keep[i] != keep[j] || store.numGenes(i) == 0)
+						continue;
+					for (int n = 0; n < 20; n++) {
+						store.mutateWeights(i);
+					}
+					if (!describe(store.toBrain(j)).equals(before[keep[j]]))
+						shared++;
+				}
+			}
+		}
+		lib.shutdown();
+
+		System.out.println(checked + " retained genomes checked over " + ROUNDS
+				+ " rounds: " + wrong + " differ, " + shared
+				+ " repeats share genes, " + grew + " retains grew the store");
+		if (wrong > 0 || shared > 0 || grew > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Picks half of the genomes in a random order, drawing with replacement
+	 * if repeats are wanted
+	 */
+	private static int[] select(Random r, int size, boolean repeats) {
+		int[] all = new int[size];
+		for (int i = 0; i < size; i++) {
+			all[i] = i;
+		}
+		for (int i = size - 1; i > 0; i--) {
+			int j = r.nextInt(i + 1);
+			int t = all[i];
+			all[i] = all[j];
+			all[j] = t;
+		}
+		int[] keep = new int[size / 2];
+		for (int i = 0; i < keep.length; i++) {
+			keep[i] = repeats ? all[r.nextInt(keep.length)] : all[i];
+		}
+		return keep;
+	}
+
+	/**
+	 * Every gene of a Brain down to the bits of its weight, followed by the
+	 * outputs for a fixed input
+	 */
+	private static String describe(Brain b) throws NetworkInputException {
+		StringBuilder s = new StringBuilder();
+		for (Integer i : b.dna.getInnovations()) {
+			Gene g = b.dna.getGene(i);
+			s.append(g.innovation).append(':').append(g.start).append('>')
+					.append(g.end).append('=')
+					.append(Long.toHexString(Double.doubleToLongBits(g.weight)))
+					.append(g.enabled ? '+' : '-').append(' ');
+		}
+		for (double d : b.evaluate(INPUT)) {
+			s.append(Long.toHexString(Double.doubleToLongBits(d))).append(' ');
+		}
+		return s.toString();
+	}
+}
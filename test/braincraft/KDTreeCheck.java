@@ -0,0 +1,91 @@
+package braincraft;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks KDTree's nearest neighbour search against a brute-force scan.
+ * Points are inserted in batches, and after each batch random queries are
+ * answered both ways. The point sets include a sorted run that keeps forcing
+ * subtrees to be rebuilt and a small grid with many equal coordinates.
+ */
+class KDTreeCheck {
+	private static final int POINTS = 20000;
+	private static final int BATCH = 500;
+	private static final int QUERIES = 50;
+	private static final int[] NEIGHBOURS = { 0, 1, 15, 600 };
+
+	public static void main(String[] args) {
+		Random r = new Random(1);
+		int failures = 0;
+		for (String shape : new String[] { "uniform", "sorted", "grid" }) {
+			KDTree tree = new KDTree();
+			ArrayList<double[]> points = new ArrayList<double[]>();
+			int queries = 0;
+			int wrong = 0;
+			for (int i = 0; i < POINTS; i++) {
+				double[] p = point(shape, i, r);
+				tree.insert(p);
+				points.add(p);
+				if ((i + 1) % BATCH != 0)
+					continue;
+				if (tree.size() != points.size())
+					wrong++;
+				for (int q = 0; q < QUERIES; q++) {
+					double[] query = point(shape, r.nextInt(POINTS), r);
+					query[0] += r.nextGaussian();
+					double[] distances = new double[points.size()];
+					for (int j = 0; j < distances.length; j++) {
+						distances[j] = KDTree.distance(query, points.get(j));
+					}
+					Arrays.sort(distances);
+					for (int k : NEIGHBOURS) {
+						queries++;
+						if (!agrees(tree, query, k, distances))
+							wrong++;
+					}
+				}
+			}
+			System.out.println(shape + ": " + queries + " queries, " + wrong
+					+ " wrong");
+			failures += wrong;
+		}
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Returns true if the tree finds the same k nearest distances as a scan
+	 * of every point, given as the sorted distances of all points
+	 */
+	private static boolean agrees(KDTree tree, double[] query, int k,
+			double[] distances) {
+		KDTree.Neighbours nearest = new KDTree.Neighbours(k);
+		tree.nearest(query, nearest);
+
+		int count = Math.min(k, distances.length);
+		double sum = 0.0;
+		for (int i = 0; i < count; i++) {
+			sum += distances[i];
+		}
+		if (k > 0) {
+			double worst = count < k ? Double.POSITIVE_INFINITY
+					: distances[count - 1];
+			if (nearest.worst() != worst)
+				return false;
+		}
+
+		// The sums add the same distances in a different order
+		return nearest.count() == count
+				&& Math.abs(nearest.sum() - sum) <= 1e-9 * Math.max(1, sum);
+	}
+
+	private static double[] point(String shape, int i, Random r) {
+		if (shape.equals("sorted"))
+			return new double[] { i, 0.5 * i, 0 };
+		if (shape.equals("grid"))
+			return new double[] { r.nextInt(3), 1, r.nextInt(2) };
+		return new double[] { r.nextDouble(), r.nextDouble(), r.nextDouble() };
+	}
+}
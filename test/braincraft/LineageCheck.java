@@ -0,0 +1,133 @@
+package braincraft;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Checks that a lineage journal holds every genome exactly. A Species is
+ * evolved with its lineage journaled while some of its Brains are tuned by
+ * backpropagation after their birth was recorded, which must stop the journal
+ * from using them as a base for deltas. Every recorded genome is then rebuilt
+ * with LineageReader and compared with a copy taken when its Brain was handed
+ * out. A missing or differing genome fails the run.
+ */
+class LineageCheck {
+	private static final int GENERATIONS = 60;
+	private static final int POPULATION = 150;
+	/**
+	 * Chance that a Brain is tuned after it is handed out
+	 */
+	private static final double TUNING_RATE = 0.3;
+
+	public static void main(String[] args) throws IOException,
+			NetworkInputException {
+		File file = File.createTempFile("lineage", ".journal");
+		file.deleteOnExit();
+
+		// Dropping old disabled genes makes deltas remove genes as well
+		Parameters.Builder builder = new Parameters.Builder();
+		builder.disabledGeneLifetime = 3;
+		Braincraft lib = new Braincraft(builder.build());
+		lib.setSeed(1);
+		Species spec = lib.newSpecies(POPULATION, 4, 2);
+		if (spec.startJournal(file.getPath()) < 0)
+			System.exit(1);
+
+		double[][] inputs = { { 1, 0.5, 0.2, 0.1 }, { 0, 1, 0.7, 0.4 } };
+		double[][] targets = { { 0.3, 0.8 }, { 0.9, 0.1 } };
+		Random r = new Random(1);
+		HashMap<Integer, Snapshot> born = new HashMap<Integer, Snapshot>();
+		int tuned = 0;
+		for (int g = 0; g < GENERATIONS; g++) {
+			for (Brain b : spec.getBrains()) {
+				born.put(b.getID(), new Snapshot(b.dna));
+				if (r.nextDouble() < TUNING_RATE) {
+					b.train(inputs, targets, 3, 0.5);
+					tuned++;
+				}
+				// Reward size a little so that the genomes keep growing
+				double[] out = b.evaluate(inputs[0]);
+				b.reportFitness(2 - Math.abs(out[0] - targets[0][0])
+						- Math.abs(out[1] - targets[0][1]) + 0.01
+						* b.dna.numGenes());
+			}
+		}
+		spec.stopJournal();
+		lib.shutdown();
+
+		LineageReader reader = LineageReader.open(file.getPath());
+		if (reader == null) {
+			System.out.println("Could not read the journal back.");
+			System.exit(1);
+		}
+		int missing = 0;
+		int wrong = 0;
+		int keyframes = 0;
+		for (Map.Entry<Integer, Snapshot> e : born.entrySet()) {
+			LineageReader.Genome genome = reader.getGenome(e.getKey());
+			if (genome == null) {
+				missing++;
+				continue;
+			}
+			if (!e.getValue().matches(genome))
+				wrong++;
+			if (reader.getParents(e.getKey()).length == 0)
+				keyframes++;
+		}
+		reader.close();
+
+		System.out.println(born.size() + " genomes rebuilt (" + keyframes
+				+ " keyframes, " + tuned + " Brains tuned after birth): "
+				+ missing + " missing, " + wrong + " differ");
+		if (missing > 0 || wrong > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * A copy of a genome as it was when its Brain was handed out
+	 */
+	private static class Snapshot {
+		private TreeMap<Integer, Integer> nodes = new TreeMap<Integer, Integer>();
+		private TreeMap<Integer, Gene> genes = new TreeMap<Integer, Gene>();
+
+		private Snapshot(DNA dna) {
+			for (NNode n : dna.getNodes()) {
+				nodes.put(n.ID, n.type);
+			}
+			for (Integer i : dna.getInnovations()) {
+				genes.put(i, new Gene(dna.getGene(i)));
+			}
+		}
+
+		/**
+		 * Returns true if a rebuilt genome has exactly these nodes and genes,
+		 * down to the bits of every weight
+		 */
+		private boolean matches(LineageReader.Genome g) {
+			if (g.nodeIDs.length != nodes.size()
+					|| g.innovations.length != genes.size())
+				return false;
+			int i = 0;
+			for (Map.Entry<Integer, Integer> n : nodes.entrySet()) {
+				if (g.nodeIDs[i] != n.getKey() || g.nodeTypes[i] != n.getValue())
+					return false;
+				i++;
+			}
+			i = 0;
+			for (Gene gene : genes.values()) {
+				if (g.innovations[i] != gene.innovation
+						|| g.starts[i] != gene.start || g.ends[i] != gene.end
+						|| Double.doubleToLongBits(g.weights[i]) != Double
+								.doubleToLongBits(gene.weight)
+						|| g.enabled[i] != gene.enabled)
+					return false;
+				i++;
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package braincraft;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives a Species through its BrainPublisher the way an asynchronous
+ * pipeline would. Several subscribers with small, refilled demand hand their
+ * Brains to a thread pool, which reports results out of order, half of them
+ * through the result subscriber. The Species has to roll over into new
+ * generations on its own. A Brain delivered twice, a result that is
+ * refused, more deliveries than a subscriber asked for, a stalled stream or
+ * a Brain left waiting after close all count as failures.
+ */
+class PublisherCheck {
+	private static final int GENERATIONS = 30;
+	private static final int POPULATION = 100;
+	private static final int SUBSCRIBERS = 3;
+	private static final int DEMAND = 4;
+	private static final long TIMEOUT_MILLIS = 60000;
+
+	private static final ConcurrentHashMap<Integer, AtomicInteger> deliveries = new ConcurrentHashMap<Integer, AtomicInteger>();
+	private static final AtomicInteger results = new AtomicInteger();
+	private static final AtomicInteger refused = new AtomicInteger();
+	private static final AtomicInteger overDelivered = new AtomicInteger();
+	private static final AtomicInteger afterComplete = new AtomicInteger();
+
+	public static void main(String[] args) throws InterruptedException {
+		Parameters.Builder builder = new Parameters.Builder();
+		builder.reproductionThreads = 2;
+		Braincraft lib = new Braincraft(builder.build());
+		lib.setSeed(5);
+		final Species spec = lib.newSpecies(POPULATION, 3, 1);
+		final BrainPublisher publisher = spec.getPublisher();
+		final Flow.Subscriber<BrainPublisher.Result> sink = publisher
+				.getResultSubscriber();
+		sink.onSubscribe(new Flow.Subscription() {
+			public void request(long n) {
+			}
+
+			public void cancel() {
+			}
+		});
+		final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+		ArrayList<Evaluator> evaluators = new ArrayList<Evaluator>();
+		for (int i = 0; i < SUBSCRIBERS; i++) {
+			Evaluator e = new Evaluator(publisher, sink, pool);
+			evaluators.add(e);
+			publisher.subscribe(e);
+		}
+
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		int generations;
+		while (true) {
+			synchronized (spec) {
+				generations = spec.numGenerations;
+			}
+			if (generations >= GENERATIONS
+					|| System.currentTimeMillis() > deadline)
+				break;
+			Thread.sleep(10);
+		}
+		publisher.close();
+		// A delivery under way when the stream closed still has to finish
+		// before the subscriber is completed
+		while (!allCompleted(evaluators)
+				&& System.currentTimeMillis() < deadline + TIMEOUT_MILLIS) {
+			Thread.sleep(10);
+		}
+		pool.shutdown();
+		pool.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		lib.shutdown();
+
+		int repeated = 0;
+		for (AtomicInteger n : deliveries.values()) {
+			if (n.get() > 1)
+				repeated++;
+		}
+		int uncompleted = 0;
+		for (Evaluator e : evaluators) {
+			if (!e.completed)
+				uncompleted++;
+		}
+		int outstanding = publisher.getNumOutstanding();
+		System.out.println(deliveries.size() + " Brains over " + generations
+				+ " generations: " + repeated + " delivered twice, "
+				+ results.get() + " results, " + refused.get() + " refused, "
+				+ overDelivered.get() + " beyond demand, "
+				+ afterComplete.get() + " after completion, " + outstanding
+				+ " outstanding, " + uncompleted + " subscribers not completed");
+		if (generations < GENERATIONS || repeated > 0
+				|| results.get() != deliveries.size() || refused.get() > 0
+				|| overDelivered.get() > 0 || afterComplete.get() > 0
+				|| outstanding > 0 || uncompleted > 0)
+			System.exit(1);
+	}
+
+	private static boolean allCompleted(ArrayList<Evaluator> evaluators) {
+		for (Evaluator e : evaluators) {
+			if (!e.completed)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A subscriber that keeps DEMAND Brains in flight and evaluates them on
+	 * a thread pool
+	 */
+	private static class Evaluator implements Flow.Subscriber<Brain> {
+		private final BrainPublisher publisher;
+		private final Flow.Subscriber<BrainPublisher.Result> sink;
+		private final ExecutorService pool;
+		private Flow.Subscription subscription;
+		/**
+		 * Brains requested and not yet delivered
+		 */
+		private final AtomicInteger pending = new AtomicInteger();
+		private volatile boolean completed;
+
+		private Evaluator(BrainPublisher publisher,
+				Flow.Subscriber<BrainPublisher.Result> sink,
+				ExecutorService pool) {
+			this.publisher = publisher;
+			this.sink = sink;
+			this.pool = pool;
+		}
+
+		public void onSubscribe(Flow.Subscription s) {
+			subscription = s;
+			pending.addAndGet(DEMAND);
+			s.request(DEMAND);
+		}
+
+		public void onNext(final Brain b) {
+			if (completed)
+				afterComplete.incrementAndGet();
+			if (pending.decrementAndGet() < 0)
+				overDelivered.incrementAndGet();
+			deliveries.putIfAbsent(b.getID(), new AtomicInteger());
+			deliveries.get(b.getID()).incrementAndGet();
+			pool.execute(new Runnable() {
+				public void run() {
+					evaluate(b);
+				}
+			});
+		}
+
+		public void onError(Throwable throwable) {
+			System.out.println("Stream failed: " + throwable);
+			System.exit(1);
+		}
+
+		public void onComplete() {
+			completed = true;
+		}
+
+		private void evaluate(Brain b) {
+			ThreadLocalRandom r = ThreadLocalRandom.current();
+			double fitness;
+			try {
+				fitness = 1 + b.evaluate(new double[] { r.nextDouble(),
+						r.nextDouble(), 1 })[0];
+			} catch (NetworkInputException e) {
+				fitness = 0;
+			}
+			// Let other evaluations overtake this one now and then
+			if (r.nextInt(4) == 0)
+				Thread.yield();
+			BrainPublisher.Result result = new BrainPublisher.Result(
+					b.getID(), fitness);
+			results.incrementAndGet();
+			if (r.nextBoolean()) {
+				sink.onNext(result);
+			} else if (publisher.reportResult(result) < 0) {
+				refused.incrementAndGet();
+			}
+			pending.incrementAndGet();
+			subscription.request(1);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package braincraft;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks TribeIndex against a linear scan of every Tribe representative
+ * with Brain.areCompatible. A population is mutated into genomes of many
+ * sizes. At each of several compatibility thresholds, half of it founds
+ * Tribes, and the other half is placed through the index, which must find a
+ * compatible Tribe exactly when the scan does. Brains that fit no Tribe
+ * found one through TribeIndex.add, as in speciation.
+ */
+class TribeIndexCheck {
+	private static final int POPULATION = 600;
+	private static final double[] THRESHOLDS = { 0.5, 1, 1.25, 1.5, 1.75, 2 };
+
+	public static void main(String[] args) {
+		Braincraft lib = new Braincraft();
+		lib.setSeed(1);
+		Species spec = lib.newSpecies(POPULATION, 6, 2);
+		Random r = new Random(1);
+		ArrayList<Brain> brains = spec.getBrains();
+		for (Brain b : brains) {
+			int nodes = r.nextInt(8);
+			for (int i = 0; i < nodes; i++) {
+				b.mutateAddNode();
+			}
+			int links = r.nextInt(30);
+			for (int i = 0; i < links; i++) {
+				b.mutateAddLink();
+			}
+			b.mutateWeights();
+		}
+		int half = brains.size() / 2;
+
+		int failures = 0;
+		for (double threshold : THRESHOLDS) {
+			spec.compThresh = threshold;
+			ArrayList<Tribe> tribes = new ArrayList<Tribe>();
+			for (Brain b : brains.subList(0, half)) {
+				if (findLinear(tribes, b) == null)
+					tribes.add(new Tribe(spec, b));
+			}
+
+			TribeIndex index = new TribeIndex(tribes, spec.getParameters());
+			int wrong = 0;
+			long compared = 0;
+			long scanned = 0;
+			for (Brain b : brains.subList(half, brains.size())) {
+				Tribe expected = findLinear(tribes, b);
+				Tribe found = index.findCompatible(b, r);
+				compared += index.lastComparisons;
+				scanned += tribes.size();
+				if ((found == null) != (expected == null) || found != null
+						&& !Brain.areCompatible(b, found.representative))
+					wrong++;
+				if (found == null) {
+					Tribe t = new Tribe(spec, b);
+					tribes.add(t);
+					index.add(t);
+				}
+			}
+			System.out.println("threshold " + threshold + ": " + tribes.size()
+					+ " tribes, " + compared + " of " + scanned
+					+ " representatives compared, " + wrong + " wrong");
+			failures += wrong;
+		}
+		lib.shutdown();
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Returns the first Tribe whose representative is compatible with the
+	 * Brain, or null if there is none
+	 */
+	private static Tribe findLinear(ArrayList<Tribe> tribes, Brain b) {
+		for (Tribe t : tribes) {
+			if (Brain.areCompatible(b, t.representative))
+				return t;
+		}
+		return null;
+	}
+}